@@ -0,0 +1,82 @@
+package huffman.bench;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Random;
+
+/**
+ * This class finds the files the benchmarks run on. The names input1 to
+ * input6 are the text files bundled with the project, found in the working
+ * directory or its parent, or in the directory named by the huffman.inputs
+ * system property. The other names are generated once into the temporary
+ * directory: uniform and skewed random ASCII, a single repeated character,
+ * and several MB of the bundled text repeated.
+ */
+public class Corpus {
+    /** Every corpus name the benchmarks accept */
+    public static final String[] NAMES = { "input1", "input2", "input3", "input4", "input5", "input6",
+            "uniform-1MB", "skewed-1MB", "single-1MB", "text-16MB" };
+
+    private static final int MB = 1 << 20;
+
+    private Corpus() {
+    }
+
+    /**
+     * Returns the path of the named corpus, generating it first if needed
+     *
+     * @param name One of NAMES
+     */
+    public static Path path(String name) throws IOException {
+        if (name.startsWith("input"))
+            return bundled(name + ".txt");
+        Path file = Paths.get(System.getProperty("java.io.tmpdir"), "huffman-bench-" + name + ".txt");
+        if (Files.exists(file))
+            return file;
+        Random random = new Random(42);
+        byte[] data;
+        switch (name) {
+            case "uniform-1MB":
+                data = new byte[MB];
+                for (int i = 0; i < data.length; i++)
+                    data[i] = (byte) (32 + random.nextInt(95));
+                break;
+            case "skewed-1MB":
+                // Geometric distribution, so a few characters dominate and the codes get long
+                data = new byte[MB];
+                for (int i = 0; i < data.length; i++) {
+                    int c = 0;
+                    while (c < 94 && random.nextInt(3) != 0)
+                        c++;
+                    data[i] = (byte) (32 + c);
+                }
+                break;
+            case "single-1MB":
+                data = new byte[MB];
+                java.util.Arrays.fill(data, (byte) 'a');
+                break;
+            case "text-16MB":
+                byte[] text = Files.readAllBytes(bundled("input5.txt"));
+                data = new byte[16 * MB];
+                for (int i = 0; i < data.length; i += text.length)
+                    System.arraycopy(text, 0, data, i, Math.min(text.length, data.length - i));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown corpus " + name);
+        }
+        Path tmp = Files.createTempFile(file.getParent(), "huffman-bench-", ".tmp");
+        Files.write(tmp, data);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    private static Path bundled(String fileName) throws FileNotFoundException {
+        String dir = System.getProperty("huffman.inputs");
+        Path[] candidates = dir != null ? new Path[] { Paths.get(dir, fileName) }
+                : new Path[] { Paths.get(fileName), Paths.get("..", fileName) };
+        for (Path p : candidates)
+            if (Files.exists(p))
+                return p;
+        throw new FileNotFoundException(fileName + " not found, set -Dhuffman.inputs to the project directory");
+    }
+}
@@ -0,0 +1,116 @@
+package huffman.bench;
+
+import huffman.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks every stage of HuffmanCoding on its own, and the whole encode
+ * and decode process end to end. Each stage runs on an instance which has
+ * already been through the stages before it. The stages which read or write
+ * the file also report their input throughput as megabytes per second.
+ *
+ * Build with mvn package and run from the project directory with
+ * java -jar benchmarks/target/benchmarks.jar -prof gc
+ * to also see the allocation rate of every stage.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageBenchmark {
+
+    @State(Scope.Thread)
+    public static class Prepared {
+        @Param({ "input1", "input2", "input3", "input4", "input5", "input6",
+                "uniform-1MB", "skewed-1MB", "single-1MB", "text-16MB" })
+        public String corpus;
+
+        String input, encoded, decoded;
+        long inputBytes;
+        HuffmanCoding coding;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            Path path = Corpus.path(corpus);
+            input = path.toString();
+            inputBytes = Files.size(path);
+            encoded = Files.createTempFile("huffman-bench-", ".enc").toString();
+            decoded = Files.createTempFile("huffman-bench-", ".dec").toString();
+            coding = new HuffmanCoding(input);
+            coding.makeSortedList();
+            coding.makeTree();
+            coding.makeEncodings();
+            coding.encode(encoded);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(Paths.get(encoded));
+            Files.deleteIfExists(Paths.get(decoded));
+        }
+    }
+
+    /** Counts the megabytes of input processed, reported as a rate */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+
+        void add(long bytes) {
+            megabytes += bytes / 1e6;
+        }
+    }
+
+    @Benchmark
+    public Object makeSortedList(Prepared p, Throughput t) {
+        p.coding.makeSortedList();
+        t.add(p.inputBytes);
+        return p.coding.getSortedCharFreqList();
+    }
+
+    @Benchmark
+    public Object makeTree(Prepared p) {
+        p.coding.makeTree();
+        return p.coding;
+    }
+
+    @Benchmark
+    public Object makeEncodings(Prepared p) {
+        p.coding.makeEncodings();
+        return p.coding.getEncodings();
+    }
+
+    @Benchmark
+    public void encode(Prepared p, Throughput t) {
+        p.coding.encode(p.encoded);
+        t.add(p.inputBytes);
+    }
+
+    @Benchmark
+    public void decode(Prepared p, Throughput t) {
+        p.coding.decode(p.encoded, p.decoded);
+        t.add(p.inputBytes);
+    }
+
+    @Benchmark
+    public void endToEnd(Prepared p, Throughput t, Blackhole bh) {
+        HuffmanCoding coding = new HuffmanCoding(p.input);
+        coding.makeSortedList();
+        coding.makeTree();
+        coding.makeEncodings();
+        coding.encode(p.encoded);
+        coding.decode(p.encoded, p.decoded);
+        bh.consume(coding);
+        t.add(p.inputBytes);
+    }
+}
@@ -0,0 +1,151 @@
+package huffman;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is an adaptive Huffman code over bytes, using the FGK algorithm.
+ * Encoder and decoder start from the same tree, holding only the NYT (not yet
+ * transmitted) leaf, and update it in the same way after every symbol, so
+ * the code follows the counts seen so far without a header or a first pass.
+ * The first time a symbol appears it is sent as the code of NYT followed by
+ * the symbol itself, and the NYT leaf splits to make room for it.
+ *
+ * Nodes live in flat arrays indexed by their number in the sibling ordering,
+ * where weights never decrease with the number and siblings are adjacent, so
+ * the right child of a node is child[node] and the left one child[node] - 1.
+ * Swapping two nodes swaps what their slots hold, leaving the slots' parents
+ * alone. Besides the 256 bytes the alphabet has END, which ends a stream, and
+ * FLUSH, after which both sides skip to a byte boundary.
+ */
+public class AdaptiveHuffman {
+    /** Symbol marking the end of the data */
+    public static final int END = 256;
+    /** Symbol after which the rest of the byte is padding */
+    public static final int FLUSH = 257;
+    /** Number of symbols, the bytes followed by END and FLUSH */
+    public static final int ALPHABET = 258;
+    /** Bits used to send a symbol the first time it appears */
+    static final int SYMBOL_BITS = 9;
+
+    // NYT is kept as one more leaf symbol, so its code is found like any other
+    private static final int NYT = ALPHABET;
+    private static final int NODES = 2 * ALPHABET + 1;
+    private static final int ROOT = NODES - 1;
+
+    private final long[] weight = new long[NODES];
+    private final int[] parent = new int[NODES];
+    // Right child of an internal node, or -1 - symbol for a leaf
+    private final int[] child = new int[NODES];
+    private final int[] leaf = new int[ALPHABET + 1];
+    // Bits of the code being sent, leaf end first
+    private final long[] path = new long[(NODES + 63) / 64];
+
+    public AdaptiveHuffman() {
+        reset();
+    }
+
+    /** Forgets every symbol seen, going back to the tree holding only NYT */
+    public void reset() {
+        Arrays.fill(leaf, -1);
+        weight[ROOT] = 0;
+        parent[ROOT] = -1;
+        child[ROOT] = -1 - NYT;
+        leaf[NYT] = ROOT;
+    }
+
+    /**
+     * Writes the code of a symbol and updates the tree
+     *
+     * @param symbol A byte from 0 to 255, END or FLUSH
+     * @param out    The writer to send the code to
+     */
+    public void encode(int symbol, BitWriter out) throws IOException {
+        int node = leaf[symbol];
+        if (node < 0) {
+            writePath(leaf[NYT], out);
+            out.writeBits(symbol, SYMBOL_BITS);
+        } else
+            writePath(node, out);
+        update(symbol);
+    }
+
+    /**
+     * Reads the code of a symbol and updates the tree
+     *
+     * @param in The reader holding the codes
+     * @return A byte from 0 to 255, END or FLUSH
+     */
+    public int decode(BitReader in) throws IOException {
+        int node = ROOT;
+        while (child[node] >= 0)
+            node = in.readBit() == 1 ? child[node] : child[node] - 1;
+        int symbol = -1 - child[node];
+        if (symbol == NYT) {
+            symbol = (int) in.readBits(SYMBOL_BITS);
+            if (symbol >= ALPHABET || leaf[symbol] >= 0)
+                throw new IOException("Corrupt adaptive Huffman data");
+        }
+        update(symbol);
+        return symbol;
+    }
+
+    private void writePath(int node, BitWriter out) throws IOException {
+        int n = 0;
+        for (; node != ROOT; node = parent[node], n++)
+            if (child[parent[node]] == node)
+                path[n >>> 6] |= 1L << (n & 63);
+        // The root end of the path is in the highest bits of the last word
+        int top = (n - 1) >> 6;
+        for (int w = top; w >= 0; w--) {
+            out.writeBits(path[w], w == top ? n - 64 * w : 64);
+            path[w] = 0;
+        }
+    }
+
+    private void update(int symbol) {
+        int node = leaf[symbol];
+        if (node < 0) {
+            // Split NYT into a new NYT on the left and the new symbol on the right
+            int old = leaf[NYT];
+            child[old] = old - 1;
+            parent[old - 1] = parent[old - 2] = old;
+            weight[old - 1] = weight[old - 2] = 0;
+            child[old - 1] = -1 - symbol;
+            child[old - 2] = -1 - NYT;
+            leaf[symbol] = old - 1;
+            leaf[NYT] = old - 2;
+            node = old - 1;
+        }
+        while (node >= 0) {
+            // Move the node to the top of its block of equal weights, unless
+            // that would put it above its own parent
+            int leader = node;
+            while (leader < ROOT && weight[leader + 1] == weight[node])
+                leader++;
+            if (leader != node && leader != parent[node]) {
+                swap(node, leader);
+                node = leader;
+            }
+            weight[node]++;
+            node = parent[node];
+        }
+    }
+
+    private void swap(int a, int b) {
+        int ca = child[a], cb = child[b];
+        child[a] = cb;
+        child[b] = ca;
+        adopt(a);
+        adopt(b);
+    }
+
+    // Points whatever a slot now holds back at the slot
+    private void adopt(int node) {
+        int c = child[node];
+        if (c < 0)
+            leaf[-1 - c] = node;
+        else
+            parent[c] = parent[c - 1] = node;
+    }
+}
@@ -0,0 +1,88 @@
+package huffman;
+
+import java.io.*;
+import java.nio.channels.Channels;
+
+/**
+ * This class is an input stream which decodes data written by
+ * AdaptiveHuffmanOutputStream, updating its copy of the code after every
+ * byte just as the writer did. A read returns as soon as it reaches a point
+ * where the writer flushed, so data can be passed along as it arrives.
+ */
+public class AdaptiveHuffmanInputStream extends FilterInputStream {
+    private final BitReader bits;
+    private final AdaptiveHuffman model = new AdaptiveHuffman();
+    private boolean ended;
+
+    /**
+     * Creates the stream and reads the stream header from in
+     *
+     * @param in The stream holding the encoded data
+     */
+    public AdaptiveHuffmanInputStream(InputStream in) throws IOException {
+        super(in);
+        bits = new BitReader(Channels.newChannel(in));
+        if (FileFormat.readHeader(bits) != FileFormat.ADAPTIVE)
+            throw new IOException("Not an adaptive Huffman stream");
+    }
+
+    public int read() throws IOException {
+        while (!ended) {
+            int symbol = next();
+            if (symbol >= 0)
+                return symbol;
+        }
+        return -1;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        int n = 0;
+        while (n < len && !ended) {
+            int symbol = next();
+            if (symbol >= 0)
+                b[off + n++] = (byte) symbol;
+            else if (n > 0)
+                // The writer flushed here, so more data may not have arrived yet
+                break;
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && read() >= 0)
+            skipped++;
+        return skipped;
+    }
+
+    public int available() {
+        return 0;
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public void mark(int readlimit) {
+    }
+
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    // Returns the next byte, or -1 after a FLUSH or at the END
+    private int next() throws IOException {
+        int symbol = model.decode(bits);
+        if (symbol == AdaptiveHuffman.FLUSH)
+            bits.alignToByte();
+        else if (symbol == AdaptiveHuffman.END)
+            ended = true;
+        else
+            return symbol;
+        return -1;
+    }
+}
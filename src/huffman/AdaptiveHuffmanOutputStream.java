@@ -0,0 +1,82 @@
+package huffman;
+
+import java.io.*;
+import java.nio.channels.Channels;
+
+/**
+ * This class is an output stream which codes everything written to it with
+ * an adaptive Huffman code, in a single pass and without a code table, so it
+ * works on data which can only be read once, such as a pipe or a socket.
+ * Each byte is coded as soon as it is written, and flush() pushes everything
+ * written so far through to the other end. The output is read back with
+ * AdaptiveHuffmanInputStream.
+ */
+public class AdaptiveHuffmanOutputStream extends FilterOutputStream {
+    private final BitWriter bits;
+    private final AdaptiveHuffman model = new AdaptiveHuffman();
+    private boolean finished;
+
+    /**
+     * Creates the stream and writes the stream header to out
+     *
+     * @param out The stream the encoded data is written to
+     */
+    public AdaptiveHuffmanOutputStream(OutputStream out) throws IOException {
+        super(out);
+        bits = new BitWriter(Channels.newChannel(out));
+        FileFormat.writeHeader(bits, FileFormat.ADAPTIVE);
+    }
+
+    public void write(int b) throws IOException {
+        ensureOpen();
+        model.encode(b & 0xFF, bits);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        for (int i = off; i < off + len; i++)
+            model.encode(b[i] & 0xFF, bits);
+    }
+
+    /**
+     * Sends everything written so far to the underlying stream, so the other
+     * end can decode it straight away. This costs the code of a FLUSH symbol
+     * and the padding to the next byte.
+     */
+    public void flush() throws IOException {
+        if (!finished) {
+            model.encode(AdaptiveHuffman.FLUSH, bits);
+            bits.alignToByte();
+            bits.flush();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the end of the stream without closing the underlying stream
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        model.encode(AdaptiveHuffman.END, bits);
+        bits.alignToByte();
+        bits.flush();
+        out.flush();
+        finished = true;
+    }
+
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished)
+            throw new IOException("Stream has already been finished");
+    }
+}
@@ -0,0 +1,319 @@
+package huffman;
+
+import java.io.*;
+
+/**
+ * A table-based asymmetric numeral system coder (tANS, the coder of FSE) as
+ * an EntropyCoder. Huffman codes spend a whole number of bits on every
+ * symbol, so a byte making up 90% of a block still takes a bit where it
+ * carries 0.15; tANS spends fractions of a bit, which is worth most on such
+ * skewed blocks.
+ *
+ * The counts are scaled to sum to a power of two, 2^log with log at most
+ * MAX_TABLE_LOG, and every byte which occurs keeps at least 1. Those
+ * normalized counts are all the header holds: the coder and decoder spread
+ * the bytes over 2^log states the same way and build their tables from that.
+ * Decoding a byte is one lookup, giving the byte, how many bits to read and
+ * where the next state starts, much like a Huffman lookup table.
+ *
+ * Bytes are coded last to first, since ANS decodes in the opposite order it
+ * codes, and the bits of each are put in front of the ones before, so the
+ * decoder reads the stream forwards. Two states take turns, even bytes on
+ * one and odd bytes on the other, so the decoder has two lookups that don't
+ * wait on each other. The final states lead the stream.
+ *
+ * A block is the table log as a byte, the number of bytes with a count, then
+ * for each the gap from the previous one and its count less one, then the
+ * bit length of the stream, padded to a whole byte, and the stream itself,
+ * whose padding is at its start.
+ */
+public class AnsEntropyCoder implements EntropyCoder {
+    /** Largest table log, giving 2^12 states and a 16KB decoding table */
+    public static final int MAX_TABLE_LOG = 12;
+    private static final int MIN_TABLE_LOG = 5;
+    private static final int ALPHABET = 256;
+
+    public int id() {
+        return ANS;
+    }
+
+    public String name() {
+        return "tans";
+    }
+
+    public long estimateBits(long[] counts) {
+        long total = total(counts);
+        if (total == 0)
+            return 8;
+        int log = tableLog(counts, total);
+        int[] norm = normalize(counts, total, log);
+        // Each byte costs log2(2^log / norm) bits, give or take the rounding of states
+        double bits = 2 * log;
+        for (int s = 0; s < ALPHABET; s++)
+            if (counts[s] != 0)
+                bits += counts[s] * (log - Math.log(norm[s]) / Math.log(2));
+        long payload = (long) Math.ceil(bits);
+        return headerBits(norm) + 8 * HuffmanEntropyCoder.varLongSize(payload) + payload;
+    }
+
+    public void encode(byte[] raw, int len, long[] counts, BitWriter out) throws IOException {
+        int log = tableLog(counts, len);
+        int[] norm = normalize(counts, len, log);
+        int size = 1 << log;
+
+        // Per byte, the offset of its states in stateTable and the sum which
+        // gives the bits to write from the state, as in FSE
+        int[] offset = new int[ALPHABET], delta = new int[ALPHABET];
+        int[] stateTable = new int[size];
+        int[] next = new int[ALPHABET];
+        int cumulative = 0;
+        for (int s = 0; s < ALPHABET; s++)
+            if (norm[s] != 0) {
+                int maxBits = log - (31 - Integer.numberOfLeadingZeros(norm[s]));
+                delta[s] = (maxBits << 16) - (norm[s] << maxBits);
+                offset[s] = cumulative - norm[s];
+                next[s] = cumulative;
+                cumulative += norm[s];
+            }
+        int[] spread = spread(norm, log);
+        for (int u = 0; u < size; u++)
+            stateTable[next[spread[u]]++] = size + u;
+
+        // Written backwards from the end, in front of what is already there
+        byte[] stream = new byte[(int) (((long) len * log + 2 * log) / 8 + 2)];
+        int at = stream.length;
+        long acc = 0;
+        int fill = 0;
+        int[] state = { size, size };
+        for (int i = len - 1; i >= 0; i--) {
+            int s = raw[i] & 0xFF, x = state[i & 1];
+            int bits = (x + delta[s]) >>> 16;
+            acc |= (long) (x & ((1 << bits) - 1)) << fill;
+            fill += bits;
+            state[i & 1] = stateTable[offset[s] + (x >>> bits)];
+            while (fill >= 8) {
+                stream[--at] = (byte) acc;
+                acc >>>= 8;
+                fill -= 8;
+            }
+        }
+        for (int k = 1; k >= 0; k--) {
+            acc |= (long) (state[k] - size) << fill;
+            fill += log;
+            while (fill >= 8) {
+                stream[--at] = (byte) acc;
+                acc >>>= 8;
+                fill -= 8;
+            }
+        }
+        long streamBits = 8L * (stream.length - at) + fill;
+        if (fill > 0)
+            stream[--at] = (byte) acc;
+
+        out.writeByte(log);
+        writeCounts(norm, out);
+        out.writeVarLong(streamBits);
+        out.alignToByte();
+        out.writeBytes(stream, at, stream.length - at);
+    }
+
+    public void decode(BitReader in, byte[] raw, int len) throws IOException {
+        int log = in.readByte();
+        if (log < MIN_TABLE_LOG || log > MAX_TABLE_LOG)
+            throw new IOException("Unsupported table log " + log);
+        int[] norm = readCounts(in, log);
+        long streamBits = in.readVarLong();
+        if (streamBits < 2 * log || streamBits > (long) len * log + 2 * log)
+            throw new IOException("Malformed stream length " + streamBits);
+        in.alignToByte();
+        int bytes = (int) ((streamBits + 7) / 8);
+        byte[] stream = in.readBytesPadded(null, bytes);
+        decodeStream(stream, 8L * bytes - streamBits, decodeTable(norm, log), log, raw, len);
+    }
+
+    /**
+     * Decodes len bytes from a stream starting at bit start
+     *
+     * @param table Entries of next state base << 12 | bits << 8 | byte
+     */
+    private static void decodeStream(byte[] stream, long start, int[] table, int log, byte[] raw, int len)
+            throws IOException {
+        int shift = 64 - log;
+        long p = start;
+        int u0 = (int) ((BitReader.longAt(stream, (int) (p >>> 3)) << (p & 7)) >>> shift);
+        p += log;
+        int u1 = (int) ((BitReader.longAt(stream, (int) (p >>> 3)) << (p & 7)) >>> shift);
+        p += log;
+        int i = 0;
+        try {
+            for (int end = len & ~1; i < end; i += 2) {
+                int e0 = table[u0], e1 = table[u1];
+                raw[i] = (byte) e0;
+                raw[i + 1] = (byte) e1;
+                int b0 = e0 >>> 8 & 0xF, b1 = e1 >>> 8 & 0xF;
+                long peek = (BitReader.longAt(stream, (int) (p >>> 3)) << (p & 7)) >>> shift;
+                u0 = (e0 >>> 12) + (int) (peek >>> (log - b0));
+                p += b0;
+                peek = (BitReader.longAt(stream, (int) (p >>> 3)) << (p & 7)) >>> shift;
+                u1 = (e1 >>> 12) + (int) (peek >>> (log - b1));
+                p += b1;
+            }
+            if (i < len) {
+                int e0 = table[u0], b0 = e0 >>> 8 & 0xF;
+                raw[i] = (byte) e0;
+                long peek = (BitReader.longAt(stream, (int) (p >>> 3)) << (p & 7)) >>> shift;
+                u0 = (e0 >>> 12) + (int) (peek >>> (log - b0));
+                p += b0;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Stream runs past the end of its block", e);
+        }
+        // Both states are back where coding started, at the first state
+        if (p != 8L * (stream.length - 8) || u0 != 0 || u1 != 0)
+            throw new IOException("Block does not match its recorded stream");
+    }
+
+    /**
+     * Returns the decoding table: for the state at each position, the byte it
+     * stands for, the bits to read and the state those bits are added to
+     */
+    private static int[] decodeTable(int[] norm, int log) {
+        int size = 1 << log;
+        int[] spread = spread(norm, log);
+        int[] next = norm.clone();
+        int[] table = new int[size];
+        for (int u = 0; u < size; u++) {
+            int s = spread[u], x = next[s]++;
+            int bits = log - (31 - Integer.numberOfLeadingZeros(x));
+            table[u] = ((x << bits) - size) << 12 | bits << 8 | s;
+        }
+        return table;
+    }
+
+    /**
+     * Spreads each byte over as many of the 2^log positions as its count,
+     * stepping through them so that a byte's states are scattered
+     */
+    private static int[] spread(int[] norm, int log) {
+        int size = 1 << log, mask = size - 1;
+        // Odd, so stepping by it visits every position once
+        int step = (size >>> 1) + (size >>> 3) + 3;
+        int[] spread = new int[size];
+        int pos = 0;
+        for (int s = 0; s < ALPHABET; s++)
+            for (int i = 0; i < norm[s]; i++) {
+                spread[pos] = s;
+                pos = (pos + step) & mask;
+            }
+        return spread;
+    }
+
+    /**
+     * Picks a table log about the size of the block, but large enough to
+     * give every byte which occurs a state
+     */
+    static int tableLog(long[] counts, long total) {
+        int distinct = 0;
+        for (long c : counts)
+            if (c != 0)
+                distinct++;
+        int log = 64 - Long.numberOfLeadingZeros(Math.max(1, total - 1));
+        log = Math.max(MIN_TABLE_LOG, Math.min(MAX_TABLE_LOG, log));
+        return Math.max(log, 32 - Integer.numberOfLeadingZeros(distinct - 1));
+    }
+
+    /**
+     * Scales the counts to sum to 2^log, keeping at least 1 for every byte
+     * which occurs. Rounding leaves the sum a little off, which is made up one
+     * count at a time wherever it costs the fewest bits.
+     */
+    static int[] normalize(long[] counts, long total, int log) {
+        int size = 1 << log;
+        int[] norm = new int[ALPHABET];
+        int sum = 0;
+        for (int s = 0; s < ALPHABET; s++)
+            if (counts[s] != 0) {
+                norm[s] = (int) Math.max(1, Math.round((double) counts[s] * size / total));
+                sum += norm[s];
+            }
+        for (; sum < size; sum++) {
+            int best = -1;
+            double bestGain = -1;
+            for (int s = 0; s < ALPHABET; s++)
+                if (norm[s] != 0) {
+                    double gain = counts[s] * Math.log((norm[s] + 1.0) / norm[s]);
+                    if (gain > bestGain) {
+                        best = s;
+                        bestGain = gain;
+                    }
+                }
+            norm[best]++;
+        }
+        for (; sum > size; sum--) {
+            int best = -1;
+            double bestCost = Double.MAX_VALUE;
+            for (int s = 0; s < ALPHABET; s++)
+                if (norm[s] > 1) {
+                    double cost = counts[s] * Math.log((double) norm[s] / (norm[s] - 1));
+                    if (cost < bestCost) {
+                        best = s;
+                        bestCost = cost;
+                    }
+                }
+            norm[best]--;
+        }
+        return norm;
+    }
+
+    private static void writeCounts(int[] norm, BitWriter out) throws IOException {
+        int n = 0;
+        for (int c : norm)
+            if (c != 0)
+                n++;
+        out.writeVarLong(n);
+        int prev = -1;
+        for (int s = 0; s < ALPHABET; s++)
+            if (norm[s] != 0) {
+                out.writeVarLong(s - prev - 1);
+                out.writeVarLong(norm[s] - 1);
+                prev = s;
+            }
+    }
+
+    private static int[] readCounts(BitReader in, int log) throws IOException {
+        long n = in.readVarLong();
+        int[] norm = new int[ALPHABET];
+        long prev = -1, sum = 0;
+        for (long i = 0; i < n; i++) {
+            long s = prev + 1 + in.readVarLong(), c = in.readVarLong() + 1;
+            if (s >= ALPHABET || c > 1 << log)
+                throw new IOException("Malformed count header");
+            norm[(int) s] = (int) c;
+            sum += c;
+            prev = s;
+        }
+        if (sum != 1 << log)
+            throw new IOException("Counts do not add up to the table size");
+        return norm;
+    }
+
+    private static long headerBits(int[] norm) {
+        long bits = 8;
+        int n = 0, prev = -1;
+        for (int s = 0; s < ALPHABET; s++)
+            if (norm[s] != 0) {
+                bits += 8 * HuffmanEntropyCoder.varLongSize(s - prev - 1)
+                        + 8 * HuffmanEntropyCoder.varLongSize(norm[s] - 1);
+                prev = s;
+                n++;
+            }
+        return bits + 8 * HuffmanEntropyCoder.varLongSize(n);
+    }
+
+    private static long total(long[] counts) {
+        long total = 0;
+        for (long c : counts)
+            total += c;
+        return total;
+    }
+}
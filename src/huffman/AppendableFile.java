@@ -0,0 +1,199 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * This class reads and writes the append format, which can be extended with
+ * new data without coding the old data again. The file stores one code table
+ * giving every byte a code, so any later data can be coded with it, and two
+ * fixed size slots ahead of the codes, each holding a bit length of the codes
+ * and the number of bytes they code, instead of a padding marker at the front.
+ *
+ * An append picks up the bits of the last partly filled byte and writes the
+ * new codes from there, past everything the current slot counts. Once they
+ * are forced to disk it commits them by writing the other slot, so a crash at
+ * any point leaves a file which decodes to either the old or the new data.
+ * Its cost depends only on the new data.
+ *
+ * The encoded file is an APPEND header, the code table, then from the next
+ * byte boundary the two slots, and the codes padded to a whole byte. A slot
+ * is the bit length and the number of bytes coded as 8 bytes each, then a
+ * CRC-32 of them as 4 bytes. The valid slot with the most bytes is current.
+ */
+public class AppendableFile {
+    private static final int ALPHABET = 256;
+    private static final int SLOT = 20;
+
+    private AppendableFile() {
+    }
+
+    /**
+     * Creates encodedFile holding data, with a code table trained on data.
+     * Bytes missing from data still get codes, so anything can be appended.
+     *
+     * @param encodedFile The file to write, which doesn't need to exist yet
+     * @param data        The first bytes of the file
+     */
+    public static void create(String encodedFile, byte[] data) throws IOException {
+        long[] counts = new long[ALPHABET];
+        for (byte b : data)
+            counts[b & 0xFF]++;
+        create(encodedFile, TrainedTable.fromCounts(counts));
+        append(encodedFile, data);
+    }
+
+    /**
+     * Creates encodedFile holding no data, coding what is appended later with
+     * the given table
+     *
+     * @param encodedFile The file to write, which doesn't need to exist yet
+     * @param table       The table to code every append with
+     */
+    public static void create(String encodedFile, TrainedTable table) throws IOException {
+        try (BitWriter out = new BitWriter(encodedFile)) {
+            FileFormat.writeHeader(out, FileFormat.APPEND);
+            table.getCodeTable().write(out);
+            out.alignToByte();
+            for (int i = 0; i < 2; i++)
+                out.writeBytes(slot(0, 0).array(), 0, SLOT);
+        }
+    }
+
+    /**
+     * Appends newData to a file written by create(), coding it with the table
+     * stored in the file. The file is created with a table trained on newData
+     * if it doesn't exist yet.
+     *
+     * @param encodedFile The file to extend
+     * @param newData     The bytes to add to the end of the decoded file
+     */
+    public static void append(String encodedFile, byte[] newData) throws IOException {
+        if (!Files.exists(Paths.get(encodedFile))) {
+            create(encodedFile, newData);
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            Layout file = readLayout(ch, encodedFile);
+            long[] code = file.codes.getCodes();
+            int[] length = file.codes.getLengths();
+            for (int l : length)
+                if (l == 0)
+                    throw new IOException(encodedFile + " has a code table which can't code every byte");
+            long last = file.codeStart + file.bits / 8;
+            int fill = (int) (file.bits % 8);
+            int partial = 0;
+            if (fill > 0) {
+                ByteBuffer b = ByteBuffer.allocate(1);
+                while (b.hasRemaining())
+                    if (ch.read(b, last) < 0)
+                        throw new EOFException("Unexpected end of file");
+                partial = (b.get(0) & 0xFF) >>> (8 - fill);
+            }
+
+            // Start again at the last partly filled byte, rewriting the bits already in it
+            BitWriter out = new BitWriter(ch.position(last));
+            out.writeBits(partial, fill);
+            for (byte b : newData)
+                out.writeBits(code[b & 0xFF], length[b & 0xFF]);
+            long bits = file.bits + out.bitsWritten() - fill;
+            out.alignToByte();
+            out.flush();
+            ch.force(false);
+
+            // Nothing counts the new codes until the other slot is written
+            ByteBuffer commit = slot(bits, file.count + newData.length);
+            long at = file.codeStart - (1 + file.slot) * SLOT;
+            while (commit.hasRemaining())
+                at += ch.write(commit, at);
+            ch.force(false);
+            // Drop codes a crashed append left past the end
+            ch.truncate(file.codeStart + (bits + 7) / 8);
+        }
+    }
+
+    /**
+     * Decodes a file written by create() and append() into decodedFile
+     *
+     * @param encodedFile The file written by create() and append()
+     * @param decodedFile The file to write, which doesn't need to exist yet
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ);
+                SymbolWriter out = new SymbolWriter(decodedFile)) {
+            Layout file = readLayout(ch, encodedFile);
+            DecodeTable table = new DecodeTable(file.codes);
+            BitReader in = new BitReader(ch.position(file.codeStart));
+            for (long i = 0; i < file.count; i++)
+                out.write(table.decode(in));
+            if (in.bitsRead() != file.bits)
+                throw new IOException("Codes do not match their recorded bit length");
+        }
+    }
+
+    /**
+     * Returns the number of bytes a file written by create() and append()
+     * decodes to, read from its trailer
+     *
+     * @param encodedFile The file written by create() and append()
+     */
+    public static long decodedLength(String encodedFile) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ)) {
+            return readLayout(ch, encodedFile).count;
+        }
+    }
+
+    private static Layout readLayout(FileChannel ch, String encodedFile) throws IOException {
+        BitReader header = new BitReader(ch.position(0));
+        if (FileFormat.readHeader(header) != FileFormat.APPEND)
+            throw new IOException(encodedFile + " is not an appendable file");
+        Layout file = new Layout();
+        file.codes = CodeTable.read(header, ALPHABET);
+        header.alignToByte();
+        long slotStart = header.bitsRead() / 8;
+        file.codeStart = slotStart + 2 * SLOT;
+
+        long size = ch.size();
+        ByteBuffer slots = ByteBuffer.allocate(2 * SLOT);
+        while (slots.hasRemaining())
+            if (ch.read(slots, slotStart + slots.position()) < 0)
+                throw new EOFException("Unexpected end of file");
+        file.slot = -1;
+        for (int i = 0; i < 2; i++) {
+            long bits = slots.getLong(i * SLOT), count = slots.getLong(i * SLOT + 8);
+            if (slots.getInt(i * SLOT + 16) != slot(bits, count).getInt(16) || bits < 0 || count < 0
+                    || file.codeStart + (bits + 7) / 8 > size)
+                continue;
+            if (file.slot < 0 || count > file.count) {
+                file.slot = i;
+                file.bits = bits;
+                file.count = count;
+            }
+        }
+        if (file.slot < 0)
+            throw new IOException(encodedFile + " has no valid length slot");
+        return file;
+    }
+
+    // A slot holding the given bit length and count, with its checksum
+    private static ByteBuffer slot(long bits, long count) {
+        ByteBuffer slot = ByteBuffer.allocate(SLOT);
+        slot.putLong(bits).putLong(count);
+        CRC32 crc = new CRC32();
+        crc.update(slot.array(), 0, 16);
+        slot.putInt((int) crc.getValue());
+        return slot.flip();
+    }
+
+    /** Where the codes of a file are and how much they hold */
+    private static class Layout {
+        CodeTable codes;
+        long codeStart, bits, count;
+        // Index of the slot the lengths came from
+        int slot;
+    }
+}
@@ -0,0 +1,332 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * This class compresses or decompresses many files at once from the command
+ * line. Every matching file is coded as its own task, on a virtual thread
+ * when the JVM has them and on a pool of platform threads otherwise. Two
+ * semaphores bound the work in flight: one counts open files and the other
+ * the bytes of buffers the running tasks hold, so even tens of thousands of
+ * files are coded with bounded resources. A summary of throughput and ratio
+ * is printed at the end.
+ *
+ * Files are compressed into the block format of BlockFile, with ".huf"
+ * appended to their names, except that a file which a sample of its bytes
+ * shows won't shrink is stored by StoredFile without reading it through.
+ * Decompression takes any encoded format.
+ *
+ * Usage: java huffman.Driver batch compress|decompress [options] paths...
+ * where each path is a file, a directory searched recursively, or a glob
+ * pattern such as "logs/**.txt".
+ * Options:
+ *   --out DIR        write outputs under DIR instead of beside the inputs
+ *   --max-open N     most files open at once, default 256
+ *   --max-memory N   most bytes of buffers in use at once, default 256MB
+ *   --block-size N   bytes per block when compressing, default 256KB
+ */
+public class BatchCompressor {
+    /** Extension given to compressed files */
+    public static final String EXTENSION = ".huf";
+    public static final int DEFAULT_MAX_OPEN = 256;
+    public static final long DEFAULT_MAX_MEMORY = 256L << 20;
+    /** Bytes enough for a header and the two longest varlongs after it */
+    private static final int HEADER_PEEK = 24;
+
+    private final boolean compress;
+    private final Path outDir;
+    private final int blockSize;
+    private final Semaphore openFiles;
+    private final Semaphore memory;
+    private final int maxOpen;
+    private final long maxMemoryKb;
+    private final LongAdder done = new LongAdder(), failed = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder(), bytesOut = new LongAdder();
+
+    /**
+     * @param compress  True to compress, false to decompress
+     * @param outDir    Where outputs go, or null to put them beside the inputs
+     * @param maxOpen   Most files open at once, at least 2
+     * @param maxMemory Most bytes of buffers in use at once
+     * @param blockSize Bytes per block when compressing
+     */
+    public BatchCompressor(boolean compress, Path outDir, int maxOpen, long maxMemory, int blockSize) {
+        if (maxOpen < 2)
+            throw new IllegalArgumentException("At least 2 files must be allowed open");
+        if (maxMemory <= 0 || blockSize <= 0)
+            throw new IllegalArgumentException("Memory and block size must be positive");
+        // Past this a file can't be decompressed again, see blockSizeOf
+        if (blockSize > HuffmanInputStream.MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be at most " + HuffmanInputStream.MAX_BLOCK_SIZE);
+        this.compress = compress;
+        this.outDir = outDir;
+        this.blockSize = blockSize;
+        this.maxOpen = maxOpen;
+        // Memory is counted in KB so the permits fit in an int
+        maxMemoryKb = Math.min(Integer.MAX_VALUE, Math.max(1, maxMemory >> 10));
+        openFiles = new Semaphore(maxOpen);
+        memory = new Semaphore((int) maxMemoryKb);
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the command line, returning the exit status: 0 if every file was
+     * coded, 1 if any failed and 2 for bad arguments
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        if (args.length < 2 || !(args[0].equals("compress") || args[0].equals("decompress"))) {
+            err.println("Usage: batch compress|decompress [--out DIR] [--max-open N] [--max-memory BYTES]"
+                    + " [--block-size BYTES] paths...");
+            return 2;
+        }
+        Path outDir = null;
+        int maxOpen = DEFAULT_MAX_OPEN, blockSize = BlockFile.DEFAULT_BLOCK_SIZE;
+        long maxMemory = DEFAULT_MAX_MEMORY;
+        List<String> paths = new ArrayList<String>();
+        try {
+            for (int i = 1; i < args.length; i++)
+                switch (args[i]) {
+                    case "--out":
+                        outDir = Paths.get(args[++i]);
+                        break;
+                    case "--max-open":
+                        maxOpen = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-memory":
+                        maxMemory = parseSize(args[++i]);
+                        break;
+                    case "--block-size":
+                        blockSize = (int) parseSize(args[++i]);
+                        break;
+                    default:
+                        paths.add(args[i]);
+                }
+            BatchCompressor batch = new BatchCompressor(args[0].equals("compress"), outDir, maxOpen, maxMemory,
+                    blockSize);
+            return batch.process(paths, out, err) ? 0 : 1;
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            err.println("Bad arguments: " + e.getMessage());
+            return 2;
+        } catch (IOException e) {
+            err.println(e);
+            return 1;
+        }
+    }
+
+    /**
+     * Codes every file matching the given paths and prints a summary to out
+     *
+     * @return True if every file was coded
+     */
+    public boolean process(List<String> paths, PrintStream out, PrintStream err) throws IOException {
+        long start = System.nanoTime();
+        // Every match is found before any is coded, so no output can be taken for an input
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (String path : paths)
+            forEachFile(path, (file, base) -> tasks.add(() -> code(file, base, err)));
+        // Without virtual threads, more platform threads than cores only thrash
+        ExecutorService executor = newExecutor(Math.min(maxOpen / 2, 2 * Runtime.getRuntime().availableProcessors()));
+        try {
+            for (Runnable task : tasks)
+                executor.execute(task);
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                ;
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for files to be coded");
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long in = bytesIn.sum(), result = bytesOut.sum();
+        long original = compress ? in : result, encoded = compress ? result : in;
+        out.printf("%s %d files (%d failed) in %.2fs: %d -> %d bytes, ratio %.4f, %.1f MB/s%n",
+                compress ? "Compressed" : "Decompressed", done.sum(), failed.sum(), seconds, in, result,
+                original == 0 ? 0 : (double) encoded / original, in / 1e6 / Math.max(seconds, 1e-9));
+        return failed.sum() == 0;
+    }
+
+    private void code(Path file, Path base, PrintStream err) {
+        Path target = target(file, base);
+        try {
+            openFiles.acquire(2);
+            try {
+                // Every task holds an input and an output file and a block's worth of buffers
+                int kb = (int) Math.min(maxMemoryKb, (bufferBytes(file) + 1023) >> 10);
+                memory.acquire(kb);
+                try {
+                    if (target.getParent() != null)
+                        Files.createDirectories(target.getParent());
+                    if (compress && !CompressionEstimate.sample(file.toString()).isWorthCoding())
+                        StoredFile.store(file.toString(), target.toString());
+                    else if (compress)
+                        new BlockFile(blockSize).encode(file.toString(), target.toString());
+                    else
+                        HuffmanCoding.decodeFileChecked(file.toString(), target.toString());
+                    bytesIn.add(Files.size(file));
+                    bytesOut.add(Files.size(target));
+                    done.increment();
+                } finally {
+                    memory.release(kb);
+                }
+            } finally {
+                openFiles.release(2);
+            }
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+            err.println(file + ": " + e);
+        } catch (InterruptedException e) {
+            failed.increment();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long bufferBytes(Path file) throws IOException {
+        if (compress)
+            return blockSize + SymbolReader.BUFFER_SIZE + BitWriter.BUFFER_SIZE;
+        return blockSizeOf(file) + BitReader.BUFFER_SIZE + SymbolWriter.BUFFER_SIZE;
+    }
+
+    /**
+     * Returns how many bytes decoding the file holds at once besides its
+     * buffers: the block size recorded in its header, a chunk for each task
+     * ParallelHuffman runs at once, the whole file for trained files, or
+     * BlockFile's default for formats recording none
+     */
+    private static long blockSizeOf(Path file) throws IOException {
+        switch (FileFormat.of(file.toString())) {
+            case FileFormat.BLOCKS:
+            case FileFormat.STREAM:
+            case FileFormat.INTERLEAVED:
+            case FileFormat.CONTEXT:
+            case FileFormat.ENTROPY:
+                long size = readHeader(file).readVarLong();
+                if (size <= 0 || size > HuffmanInputStream.MAX_BLOCK_SIZE)
+                    throw new IOException("Unsupported block size " + size);
+                return size;
+            case FileFormat.CHUNKED:
+                BitReader header = readHeader(file);
+                long length = header.readVarLong(), chunk = header.readVarLong();
+                if (length < 0 || chunk <= 0)
+                    throw new IOException("Malformed chunk header");
+                // HuffmanCoding decodes these with ParallelHuffman on the common pool
+                long chunks = (length + chunk - 1) / chunk;
+                return Math.min(length, chunk) * Math.min(chunks, ForkJoinPool.commonPool().getParallelism());
+            case FileFormat.TRAINED:
+                return Files.size(file);
+            default:
+                return BlockFile.DEFAULT_BLOCK_SIZE;
+        }
+    }
+
+    // A reader over the start of the file, past its format header
+    private static BitReader readHeader(Path file) throws IOException {
+        byte[] head = new byte[HEADER_PEEK];
+        int n;
+        try (InputStream in = Files.newInputStream(file)) {
+            n = in.readNBytes(head, 0, head.length);
+        }
+        BitReader reader = new BitReader(ByteBuffer.wrap(head, 0, n));
+        FileFormat.readHeader(reader);
+        return reader;
+    }
+
+    private Path target(Path file, Path base) {
+        String name = file.getFileName().toString();
+        if (compress)
+            name += EXTENSION;
+        else if (name.endsWith(EXTENSION) && name.length() > EXTENSION.length())
+            name = name.substring(0, name.length() - EXTENSION.length());
+        else
+            name += ".out";
+        if (outDir == null)
+            return file.resolveSibling(name);
+        Path relative = base.relativize(file);
+        return relative.getParent() == null ? outDir.resolve(name) : outDir.resolve(relative.getParent()).resolve(name);
+    }
+
+    /**
+     * Calls action with every regular file the path names and the directory
+     * its output path is taken relative to. A directory or a glob gives every
+     * file under it which this batch would code: uncompressed files when
+     * compressing and files ending in EXTENSION when decompressing.
+     */
+    private void forEachFile(String path, FileAction action) throws IOException {
+        int glob = firstGlobChar(path);
+        if (glob < 0) {
+            Path p = Paths.get(path);
+            if (Files.isDirectory(p))
+                walk(p, p, f -> f.getFileName().toString().endsWith(EXTENSION) != compress, action);
+            else if (Files.isRegularFile(p))
+                action.accept(p, p.getParent() == null ? Paths.get("") : p.getParent());
+            else
+                throw new NoSuchFileException(path);
+            return;
+        }
+        // Walk from the last directory before the first glob character
+        int slash = path.lastIndexOf('/', glob);
+        Path base = Paths.get(slash < 0 ? "." : slash == 0 ? "/" : path.substring(0, slash));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+        walk(base, base, f -> f.getFileName().toString().endsWith(EXTENSION) != compress
+                && matcher.matches(slash < 0 ? base.relativize(f) : f), action);
+    }
+
+    private static void walk(Path dir, Path base, java.util.function.Predicate<Path> filter, FileAction action)
+            throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            Iterator<Path> it = files.filter(Files::isRegularFile).filter(filter).iterator();
+            while (it.hasNext())
+                action.accept(it.next(), base);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static int firstGlobChar(String path) {
+        for (int i = 0; i < path.length(); i++)
+            if ("*?[{".indexOf(path.charAt(i)) >= 0)
+                return i;
+        return -1;
+    }
+
+    private static long parseSize(String s) {
+        String t = s.trim().toUpperCase();
+        int shift = t.endsWith("K") || t.endsWith("KB") ? 10 : t.endsWith("M") || t.endsWith("MB") ? 20
+                : t.endsWith("G") || t.endsWith("GB") ? 30 : 0;
+        t = t.replaceAll("[KMG]B?$", "");
+        long v = Long.parseLong(t) << shift;
+        if (v <= 0)
+            throw new IllegalArgumentException("Size must be positive: " + s);
+        return v;
+    }
+
+    /**
+     * Returns an executor starting a virtual thread per task if this JVM has
+     * them, found by reflection so the code still runs on Java 17, or a pool
+     * of the given number of platform threads otherwise
+     */
+    static ExecutorService newExecutor(int fallbackThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(1, fallbackThreads));
+        }
+    }
+
+    private interface FileAction {
+        void accept(Path file, Path base) throws IOException;
+    }
+}
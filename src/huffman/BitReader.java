@@ -0,0 +1,245 @@
+package huffman;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+
+/**
+ * This class reads bits most significant first from a channel, keeping up to
+ * 64 of them in a left aligned window so that several bits can be looked at
+ * before deciding how many to consume. Bits past the end of the channel read
+ * as 0.
+ */
+public class BitReader implements Closeable {
+    /** Size of the buffer filled from the channel */
+    public static final int BUFFER_SIZE = 1 << 16;
+    /** Largest number of bits that can be peeked at once */
+    public static final int MAX_PEEK = 57;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private long window;
+    private int avail;
+    private long bitsRead;
+    private long ioNanos;
+    private boolean channelDone;
+
+    /**
+     * Creates a reader on the given channel
+     *
+     * @param channel The channel the bytes are read from
+     */
+    public BitReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.flip();
+    }
+
+    /**
+     * Creates a reader on the remaining bytes of a buffer, for data which is
+     * already in memory. The buffer itself is left untouched.
+     *
+     * @param bytes The bytes to read
+     */
+    public BitReader(ByteBuffer bytes) {
+        channel = null;
+        buffer = bytes.slice();
+        channelDone = true;
+    }
+
+    /**
+     * Creates a reader on the given file
+     *
+     * @param fileName The file to read
+     */
+    public BitReader(String fileName) throws IOException {
+        this(FileChannel.open(Paths.get(fileName), StandardOpenOption.READ));
+    }
+
+    /**
+     * Returns the next n bits without consuming them
+     *
+     * @param n How many bits to look at, from 1 to MAX_PEEK
+     */
+    public long peekBits(int n) throws IOException {
+        if (avail < n)
+            refill(n);
+        return window >>> (64 - n);
+    }
+
+    /** Consumes n bits which have already been peeked at */
+    public void skipBits(int n) {
+        window <<= n;
+        avail -= n;
+        bitsRead += n;
+    }
+
+    /**
+     * Reads the next n bits
+     *
+     * @param n How many bits to read, from 0 to 64
+     */
+    public long readBits(int n) throws IOException {
+        if (n == 0)
+            return 0;
+        if (n > 32) {
+            long high = readBits(n - 32);
+            return (high << 32) | readBits(32);
+        }
+        long v = peekBits(n);
+        skipBits(n);
+        return v;
+    }
+
+    /** Reads the next bit */
+    public int readBit() throws IOException {
+        return (int) readBits(1);
+    }
+
+    /** Reads the next 8 bits as a byte from 0 to 255 */
+    public int readByte() throws IOException {
+        return (int) readBits(8);
+    }
+
+    /**
+     * Reads len whole bytes into b, which must start on a byte boundary
+     *
+     * @throws EOFException If the channel ends first
+     */
+    public void readBytes(byte[] b, int off, int len) throws IOException {
+        if ((bitsRead & 7) != 0)
+            throw new IllegalStateException("Bytes must be read on a byte boundary");
+        // The window only ever holds whole bytes here
+        for (; len > 0 && avail >= 8; len--) {
+            b[off++] = (byte) (window >>> 56);
+            skipBits(8);
+        }
+        while (len > 0) {
+            if (!buffer.hasRemaining() && !fillBuffer())
+                throw new EOFException("Unexpected end of data");
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            off += n;
+            len -= n;
+            bitsRead += 8L * n;
+        }
+    }
+
+    /**
+     * Reads len whole bytes into buf, or into a new array if buf is null or
+     * has less than 8 bytes to spare after them, so the decoders of whole
+     * streams can load 8 bytes from any byte of them with longAt
+     *
+     * @return The array the bytes were read into
+     */
+    byte[] readBytesPadded(byte[] buf, int len) throws IOException {
+        if (buf == null || buf.length < len + 8)
+            buf = new byte[len + 8];
+        readBytes(buf, 0, len);
+        return buf;
+    }
+
+    /** Returns the 8 bytes of b from index on as a big-endian long */
+    static long longAt(byte[] b, int index) {
+        return (long) LONGS.get(b, index);
+    }
+
+    /** Reads a number written by BitWriter.writeVarLong */
+    public long readVarLong() throws IOException {
+        long v = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+            if (shift > 56)
+                throw new IOException("Malformed variable length number");
+        }
+    }
+
+    /**
+     * Skips the zeros and the single 1 which writeBitString puts ahead of the
+     * bit string
+     */
+    public void readPadMarker() throws IOException {
+        for (int i = 0; i < 8; i++)
+            if (readBit() == 1)
+                return;
+    }
+
+    /** Skips to the next byte boundary */
+    public void alignToByte() {
+        int extra = (int) (bitsRead & 7);
+        if (extra != 0)
+            skipBits(8 - extra);
+    }
+
+    /** Returns the number of bits consumed so far */
+    public long bitsRead() {
+        return bitsRead;
+    }
+
+    /** Returns the time spent waiting on the channel so far, in nanoseconds */
+    public long ioNanos() {
+        return ioNanos;
+    }
+
+    /**
+     * Returns true once every bit of the channel has been consumed
+     */
+    public boolean isAtEnd() throws IOException {
+        if (avail <= 0)
+            refill(1);
+        return avail <= 0;
+    }
+
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+
+    /**
+     * Tops up the window from the buffer, reading the channel again only while
+     * the window holds fewer than need bits, so a reader on a pipe or socket
+     * doesn't wait for bytes it hasn't been asked for yet
+     */
+    private void refill(int need) throws IOException {
+        if (avail >= 0 && avail <= 56 && buffer.remaining() >= 8) {
+            // Take as many whole bytes of the next word as fit in the window
+            int take = (64 - avail) >>> 3;
+            long word = buffer.getLong(buffer.position());
+            window |= (word >>> (64 - 8 * take)) << (64 - avail - 8 * take);
+            buffer.position(buffer.position() + take);
+            avail += 8 * take;
+            return;
+        }
+        while (avail <= 56) {
+            if (!buffer.hasRemaining() && (avail >= need || !fillBuffer()))
+                return;
+            window |= (long) (buffer.get() & 0xFF) << (56 - avail);
+            avail += 8;
+        }
+    }
+
+    private boolean fillBuffer() throws IOException {
+        if (channelDone)
+            return false;
+        long start = System.nanoTime();
+        buffer.clear();
+        int n;
+        do {
+            n = channel.read(buffer);
+        } while (n == 0);
+        buffer.flip();
+        ioNanos += System.nanoTime() - start;
+        if (n < 0)
+            channelDone = true;
+        return n > 0;
+    }
+}
@@ -0,0 +1,177 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+
+/**
+ * This class packs bits most significant first into a 64-bit accumulator,
+ * and writes each full word into a buffer which is drained to a channel
+ * when it fills up, so memory use does not depend on how much is written
+ */
+public class BitWriter implements Closeable {
+    /** Size of the buffer drained to the channel */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private long acc;
+    private int fill;
+    private long bitsWritten;
+    private long ioNanos;
+
+    /**
+     * Creates a writer on the given channel
+     *
+     * @param channel The channel the packed bytes are written to
+     */
+    public BitWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a writer on the given file, which doesn't need to exist yet
+     *
+     * @param fileName The file to write to
+     */
+    public BitWriter(String fileName) throws IOException {
+        this(FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Writes the low n bits of bits, most significant first
+     *
+     * @param bits The bits to write, everything above the low n bits must be 0
+     * @param n    How many bits to write, from 0 to 64
+     */
+    public void writeBits(long bits, int n) throws IOException {
+        int free = 64 - fill;
+        if (n < free) {
+            acc = (acc << n) | bits;
+            fill += n;
+        } else {
+            // Top off the accumulator, emit it, and keep what didn't fit
+            int rest = n - free;
+            putWord(free == 64 ? bits >>> rest : (acc << free) | (bits >>> rest));
+            acc = rest == 0 ? 0 : bits & (-1L >>> (64 - rest));
+            fill = rest;
+        }
+        bitsWritten += n;
+    }
+
+    /**
+     * Writes the padding used by writeBitString ahead of a bit string of the
+     * given length: zeros followed by a single 1, so that the padding and the
+     * bit string together fill a whole number of bytes
+     *
+     * @param payloadBits The number of bits that will follow the padding
+     */
+    public void writePadMarker(long payloadBits) throws IOException {
+        writeBits(1, 8 - (int) (payloadBits % 8));
+    }
+
+    /** Writes zeros until the next byte boundary */
+    public void alignToByte() throws IOException {
+        if ((fill & 7) != 0)
+            writeBits(0, 8 - (fill & 7));
+    }
+
+    /** Writes a byte, which is only byte-aligned if the writer already was */
+    public void writeByte(int b) throws IOException {
+        writeBits(b & 0xFF, 8);
+    }
+
+    /**
+     * Copies whole bytes, which must start on a byte boundary
+     *
+     * @param b   The bytes to write
+     * @param off Position of the first byte in b
+     * @param len Number of bytes to write
+     */
+    public void writeBytes(byte[] b, int off, int len) throws IOException {
+        if ((fill & 7) != 0)
+            throw new IllegalStateException("Bytes must be written on a byte boundary");
+        while (fill > 0) {
+            fill -= 8;
+            if (!buffer.hasRemaining())
+                drain();
+            buffer.put((byte) (acc >>> fill));
+        }
+        acc = 0;
+        bitsWritten += 8L * len;
+        while (len > 0) {
+            if (!buffer.hasRemaining())
+                drain();
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes a non-negative number 7 bits at a time, low group first, with the
+     * high bit of each byte set when more bytes follow
+     */
+    public void writeVarLong(long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            writeByte((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        writeByte((int) v);
+    }
+
+    /** Returns the number of bits written so far */
+    public long bitsWritten() {
+        return bitsWritten;
+    }
+
+    /** Returns the time spent waiting on the channel so far, in nanoseconds */
+    public long ioNanos() {
+        return ioNanos;
+    }
+
+    /**
+     * Sends every whole byte written so far to the channel. Bits which don't
+     * fill a byte yet stay in the accumulator.
+     */
+    public void flush() throws IOException {
+        while (fill >= 8) {
+            fill -= 8;
+            if (!buffer.hasRemaining())
+                drain();
+            buffer.put((byte) (acc >>> fill));
+        }
+        acc &= fill == 0 ? 0 : -1L >>> (64 - fill);
+        drain();
+    }
+
+    /** Pads the last byte with zeros, flushes it and closes the channel */
+    public void close() throws IOException {
+        try {
+            alignToByte();
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void putWord(long word) throws IOException {
+        if (buffer.remaining() < 8)
+            drain();
+        buffer.putLong(word);
+    }
+
+    private void drain() throws IOException {
+        long start = System.nanoTime();
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+        ioNanos += System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,240 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * This class reads and writes the block container format, where the input
+ * bytes are cut into blocks which are each coded on their own. Every block
+ * holds its length, its code table and the bit length of its codes, so a
+ * block can be decoded or skipped without looking at any other. A trailing
+ * index records where every block starts, in the original bytes and in the
+ * encoded file, so a range of the original can be decoded by touching only
+ * the blocks that overlap it.
+ *
+ * The encoded file is a BLOCKS header and the block size, the blocks one
+ * after another, each starting on a byte boundary, then the index and finally
+ * the position of the index as 8 bytes.
+ */
+public class BlockFile {
+    /** Block size used unless another is given */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+    static final int ALPHABET = 256;
+
+    private final int blockSize;
+    private final TableCache cache;
+
+    public BlockFile() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize Number of input bytes per block
+     */
+    public BlockFile(int blockSize) {
+        this(blockSize, null);
+    }
+
+    /**
+     * @param blockSize Number of input bytes per block
+     * @param cache     Where to look for the code table of a block before
+     *                  building it, or null to build every one
+     */
+    public BlockFile(int blockSize, TableCache cache) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Block size must be positive");
+        this.blockSize = blockSize;
+        this.cache = cache;
+    }
+
+    /**
+     * Encodes inputFile into encodedFile
+     *
+     * @param inputFile   The file to encode, read as raw bytes
+     * @param encodedFile The file to write, which doesn't need to exist yet
+     */
+    public void encode(String inputFile, String encodedFile) throws IOException {
+        long[] rawLengths = new long[16], byteLengths = new long[16];
+        int blocks = 0;
+        byte[] raw = new byte[blockSize];
+        try (SymbolReader in = new SymbolReader(inputFile, false);
+                BitWriter out = new BitWriter(encodedFile)) {
+            FileFormat.writeHeader(out, FileFormat.BLOCKS);
+            out.writeVarLong(blockSize);
+            for (int len = in.readBlock(raw); len > 0; len = in.readBlock(raw)) {
+                if (blocks == rawLengths.length) {
+                    rawLengths = Arrays.copyOf(rawLengths, blocks * 2);
+                    byteLengths = Arrays.copyOf(byteLengths, blocks * 2);
+                }
+                long start = out.bitsWritten();
+                writeBlock(out, raw, len, cache);
+                rawLengths[blocks] = len;
+                byteLengths[blocks] = (out.bitsWritten() - start) / 8;
+                blocks++;
+            }
+
+            long indexPosition = out.bitsWritten() / 8;
+            out.writeVarLong(blocks);
+            for (int i = 0; i < blocks; i++) {
+                out.writeVarLong(rawLengths[i]);
+                out.writeVarLong(byteLengths[i]);
+            }
+            out.writeBits(indexPosition, 64);
+        }
+    }
+
+    /**
+     * Decodes a whole file written by encode() into decodedFile
+     *
+     * @param encodedFile The file written by encode()
+     * @param decodedFile The file to write, which doesn't need to exist yet
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ);
+                SymbolWriter out = new SymbolWriter(decodedFile)) {
+            Index index = readIndex(ch);
+            BitReader in = new BitReader(ch.position(index.filePositions[0]));
+            byte[] raw = new byte[index.blockSize];
+            for (int i = 0; i < index.blocks; i++) {
+                int len = readBlock(in, raw);
+                out.write(raw, 0, len);
+            }
+        }
+    }
+
+    /**
+     * Decodes only the given range of the original bytes, reading just the
+     * blocks which overlap it
+     *
+     * @param encodedFile The file written by encode()
+     * @param offset      Position of the first byte wanted in the original file
+     * @param length      Number of bytes wanted, cut short at the end of the file
+     * @return The decoded bytes of the range
+     */
+    public static byte[] decodeRange(String encodedFile, long offset, int length) throws IOException {
+        if (offset < 0 || length < 0)
+            throw new IllegalArgumentException("Offset and length must not be negative");
+        try (FileChannel ch = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ)) {
+            Index index = readIndex(ch);
+            long end = Math.min(offset + length, index.rawOffsets[index.blocks]);
+            if (offset >= end)
+                return new byte[0];
+            byte[] result = new byte[(int) (end - offset)];
+
+            // Find the last block starting at or before offset
+            int block = Arrays.binarySearch(index.rawOffsets, 0, index.blocks + 1, offset);
+            if (block < 0)
+                block = -block - 2;
+            BitReader in = new BitReader(ch.position(index.filePositions[block]));
+            byte[] raw = new byte[index.blockSize];
+            for (long pos = offset; pos < end; block++) {
+                int len = readBlock(in, raw);
+                long blockStart = index.rawOffsets[block];
+                int from = (int) (pos - blockStart), to = (int) Math.min(len, end - blockStart);
+                System.arraycopy(raw, from, result, (int) (pos - offset), to - from);
+                pos = blockStart + to;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns the length of the original file a block file was made from
+     *
+     * @param encodedFile The file written by encode()
+     */
+    public static long decodedLength(String encodedFile) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ)) {
+            Index index = readIndex(ch);
+            return index.rawOffsets[index.blocks];
+        }
+    }
+
+    /**
+     * Writes one block: its length, its code table, the bit length of its codes
+     * and the codes themselves, then pads to a byte boundary. An empty block is
+     * written as its length alone. A block whose codes would be no smaller
+     * than its bytes is stored as they are, after a table with no codes.
+     *
+     * @param out   The writer, on a byte boundary
+     * @param raw   The bytes of the block
+     * @param len   The number of bytes of raw in the block
+     * @param cache Where to look for the code table first, or null
+     */
+    static void writeBlock(BitWriter out, byte[] raw, int len, TableCache cache) throws IOException {
+        if (len == 0) {
+            // An empty block is just its length, which streams use as their end
+            out.writeVarLong(0);
+            return;
+        }
+        long[] counts = new long[ALPHABET];
+        SymbolKernels.get().count(raw, 0, len, counts);
+        // Codes no longer than the lookup width always decode in a single lookup
+        CodeTable table = cache != null ? cache.encoder(counts, DecodeTable.DEFAULT_LOOKUP_BITS)
+                : CodeTable.fromCounts(counts, DecodeTable.DEFAULT_LOOKUP_BITS);
+        out.writeVarLong(len);
+        if (!CompressionEstimate.of(table, counts, len).isWorthCoding()) {
+            out.writeVarLong(0);
+            out.alignToByte();
+            out.writeBytes(raw, 0, len);
+            return;
+        }
+        HuffmanEntropyCoder.writeCodes(out, raw, len, counts, table);
+    }
+
+    /**
+     * Reads one block written by writeBlock into raw, which must be big enough
+     * for it, leaving the reader on the byte boundary after it
+     *
+     * @return The number of bytes in the block
+     */
+    static int readBlock(BitReader in, byte[] raw) throws IOException {
+        long len = in.readVarLong();
+        if (len == 0)
+            return 0;
+        if (len > raw.length)
+            throw new IOException("Block of " + len + " bytes is larger than the block size");
+        CodeTable codes = CodeTable.read(in, ALPHABET);
+        if (codes.maxLength() == 0) {
+            // A stored block
+            in.alignToByte();
+            in.readBytes(raw, 0, (int) len);
+            return (int) len;
+        }
+        HuffmanEntropyCoder.readCodes(in, codes, raw, (int) len);
+        return (int) len;
+    }
+
+    private static Index readIndex(FileChannel ch) throws IOException {
+        BitReader header = new BitReader(ch.position(0));
+        if (FileFormat.readHeader(header) != FileFormat.BLOCKS)
+            throw new IOException("Not a block file");
+        Index index = new Index();
+        index.blockSize = (int) header.readVarLong();
+        long firstBlock = header.bitsRead() / 8;
+
+        ByteBuffer tail = ByteBuffer.allocate(8);
+        while (tail.hasRemaining())
+            if (ch.read(tail, ch.size() - 8 + tail.position()) < 0)
+                throw new EOFException("Unexpected end of file");
+        BitReader in = new BitReader(ch.position(tail.getLong(0)));
+        index.blocks = (int) in.readVarLong();
+        index.rawOffsets = new long[index.blocks + 1];
+        index.filePositions = new long[index.blocks + 1];
+        index.filePositions[0] = firstBlock;
+        for (int i = 0; i < index.blocks; i++) {
+            index.rawOffsets[i + 1] = index.rawOffsets[i] + in.readVarLong();
+            index.filePositions[i + 1] = index.filePositions[i] + in.readVarLong();
+        }
+        return index;
+    }
+
+    /** Where every block starts, with one extra entry for the end of the last */
+    private static class Index {
+        int blockSize, blocks;
+        long[] rawOffsets, filePositions;
+    }
+}
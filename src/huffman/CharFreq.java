@@ -14,6 +14,7 @@ public class CharFreq implements Comparable{
     return cf1.compareTo(cf2);
   }
   public int compareTo(Object other){
+    CharFreq cf = (CharFreq) other;
     Double d1 = probOcc, d2 = cf.probOcc;
     return d1.compareTo(d2) != 0 ? d1.compareTo(d2) : character.compareTo(cf.character);
   }
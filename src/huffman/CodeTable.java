@@ -0,0 +1,318 @@
+package huffman;
+
+import java.io.IOException;
+
+/**
+ * This class holds a prefix code as two primitive tables indexed by symbol:
+ * the code bits, right aligned in a long, and the code length. A length of 0
+ * means the symbol has no code.
+ */
+public class CodeTable {
+    /** Longest code the tables can hold */
+    public static final int MAX_CODE_LENGTH = 64;
+    private static final ThreadLocal<HuffmanTreeBuilder> BUILDER = ThreadLocal.withInitial(HuffmanTreeBuilder::new);
+
+    private final long[] codes;
+    private final int[] lengths;
+
+    public CodeTable(long[] codes, int[] lengths) {
+        this.codes = codes;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Builds the tables from bitstring encodings such as the ones made by
+     * HuffmanCoding.makeEncodings(), where null means the symbol has no code
+     *
+     * @param encodings Strings of 1's and 0's indexed by symbol
+     * @return The equivalent code table
+     */
+    public static CodeTable fromEncodings(String[] encodings) {
+        long[] codes = new long[encodings.length];
+        int[] lengths = new int[encodings.length];
+        for (int i = 0; i < encodings.length; i++) {
+            String s = encodings[i];
+            if (s == null)
+                continue;
+            if (s.length() > MAX_CODE_LENGTH)
+                throw new IllegalArgumentException("Code for symbol " + i + " is longer than " + MAX_CODE_LENGTH + " bits");
+            long code = 0;
+            for (int j = 0; j < s.length(); j++)
+                code = (code << 1) | (s.charAt(j) - '0');
+            codes[i] = code;
+            lengths[i] = s.length();
+        }
+        return new CodeTable(codes, lengths);
+    }
+
+    /**
+     * Builds canonical codes with the code lengths of the given huffman tree
+     *
+     * @param root The root of the tree, whose leaves hold the symbols
+     * @param size The number of symbols the tables should cover
+     */
+    public static CodeTable fromTree(TreeNode root, int size) {
+        int[] lengths = new int[size];
+        addLengths(root, 0, lengths);
+        return canonical(lengths);
+    }
+
+    private static void addLengths(TreeNode node, int depth, int[] lengths) {
+        if (node.getLeft() == null) {
+            lengths[node.getData().getCharacter()] = depth;
+            return;
+        }
+        addLengths(node.getLeft(), depth + 1, lengths);
+        addLengths(node.getRight(), depth + 1, lengths);
+    }
+
+    /**
+     * Builds canonical huffman codes for symbols occurring with the given
+     * counts. Symbols which don't occur get no code, and a lone symbol gets a
+     * code of one bit.
+     *
+     * @param counts Occurrences of each symbol, indexed by symbol
+     */
+    public static CodeTable fromCounts(long[] counts) {
+        int symbols = 0, last = 0;
+        for (int s = 0; s < counts.length; s++)
+            if (counts[s] > 0) {
+                symbols++;
+                last = s;
+            }
+        if (symbols <= 1) {
+            // A lone symbol still needs a one bit code
+            int[] lengths = new int[counts.length];
+            if (symbols == 1)
+                lengths[last] = 1;
+            return canonical(lengths);
+        }
+        HuffmanTreeBuilder builder = BUILDER.get();
+        builder.build(counts);
+        int[] lengths = new int[counts.length];
+        builder.codeLengths(lengths);
+        return canonical(lengths);
+    }
+
+    /**
+     * Builds canonical huffman codes for symbols occurring with the given
+     * counts, limited to the given length. When the huffman code has longer
+     * codes, the optimal lengths within the limit are found by package-merge.
+     *
+     * @param counts    Occurrences of each symbol, indexed by symbol
+     * @param maxLength The longest code allowed
+     */
+    public static CodeTable fromCounts(long[] counts, int maxLength) {
+        CodeTable table = fromCounts(counts);
+        if (table.maxLength() <= maxLength)
+            return table;
+        return canonical(PackageMerge.lengths(counts, maxLength));
+    }
+
+    /**
+     * Builds the huffman coding tree of these codes, whose leaves hold the
+     * probability of their symbol and whose other nodes hold the sum of their
+     * children's
+     *
+     * @param counts Occurrences of each symbol, indexed by symbol
+     */
+    public TreeNode toTree(long[] counts) {
+        long total = 0;
+        for (long c : counts)
+            total += c;
+        TreeNode root = new TreeNode();
+        for (int s = 0; s < codes.length; s++) {
+            if (lengths[s] == 0)
+                continue;
+            TreeNode node = root;
+            for (int i = lengths[s] - 1; i >= 0; i--) {
+                boolean one = (codes[s] >>> i & 1) != 0;
+                TreeNode next = one ? node.getRight() : node.getLeft();
+                if (next == null) {
+                    next = new TreeNode();
+                    if (one)
+                        node.setRight(next);
+                    else
+                        node.setLeft(next);
+                }
+                node = next;
+            }
+            node.setData(new CharFreq((char) s, total == 0 ? 0 : (double) counts[s] / total));
+        }
+        sumProbabilities(root);
+        return root;
+    }
+
+    private static double sumProbabilities(TreeNode node) {
+        if (node.getData() != null)
+            return node.getData().getProbOcc();
+        double p = 0;
+        if (node.getLeft() != null)
+            p += sumProbabilities(node.getLeft());
+        if (node.getRight() != null)
+            p += sumProbabilities(node.getRight());
+        node.setData(new CharFreq(null, p));
+        return p;
+    }
+
+    /**
+     * Assigns canonical codes to the given code lengths: symbols are ordered by
+     * code length and then by symbol, and each gets the previous code plus one,
+     * shifted left whenever the length grows. Only the lengths are needed to
+     * rebuild the same codes.
+     *
+     * @param lengths Code length of each symbol, 0 for symbols with no code
+     * @return The canonical code table
+     */
+    public static CodeTable canonical(int[] lengths) {
+        int[] lengthCount = new int[MAX_CODE_LENGTH + 1];
+        for (int l : lengths) {
+            if (l < 0 || l > MAX_CODE_LENGTH)
+                throw new IllegalArgumentException("Code lengths must be from 0 to " + MAX_CODE_LENGTH);
+            lengthCount[l]++;
+        }
+        lengthCount[0] = 0;
+        // First code of each length, as in DEFLATE
+        long[] nextCode = new long[MAX_CODE_LENGTH + 1];
+        long code = 0;
+        for (int l = 1; l <= MAX_CODE_LENGTH; l++) {
+            code = (code + lengthCount[l - 1]) << 1;
+            nextCode[l] = code;
+        }
+        long[] codes = new long[lengths.length];
+        for (int s = 0; s < lengths.length; s++)
+            if (lengths[s] != 0)
+                codes[s] = nextCode[lengths[s]]++;
+        return new CodeTable(codes, lengths.clone());
+    }
+
+    /**
+     * Writes the code lengths as a compact header: the number of symbols with a
+     * code, then for each of them in order the gap from the previous symbol and
+     * the code length. The codes must be canonical to be rebuilt by read().
+     */
+    public void write(BitWriter out) throws IOException {
+        int n = 0;
+        for (int l : lengths)
+            if (l != 0)
+                n++;
+        out.writeVarLong(n);
+        int prev = -1;
+        for (int s = 0; s < lengths.length; s++)
+            if (lengths[s] != 0) {
+                out.writeVarLong(s - prev - 1);
+                out.writeByte(lengths[s]);
+                prev = s;
+            }
+    }
+
+    /**
+     * Reads a header written by write() and rebuilds the canonical codes
+     *
+     * @param in       The reader positioned at the header
+     * @param minSize  The least number of symbols the tables should cover
+     * @return The canonical code table described by the header
+     */
+    public static CodeTable read(BitReader in, int minSize) throws IOException {
+        long n = in.readVarLong();
+        int[] symbols = new int[(int) Math.min(n, 1 << 16)];
+        int[] lens = new int[symbols.length];
+        int size = minSize, prev = -1;
+        for (int i = 0; i < n; i++) {
+            long s = prev + 1 + in.readVarLong();
+            int l = in.readByte();
+            if (s > Character.MAX_VALUE || l == 0 || l > MAX_CODE_LENGTH || i >= symbols.length)
+                throw new IOException("Malformed code table header");
+            symbols[i] = (int) s;
+            lens[i] = l;
+            prev = (int) s;
+            size = Math.max(size, prev + 1);
+        }
+        // More codes of some length than the shorter ones leave room for can't all be prefix free
+        int[] perLength = new int[MAX_CODE_LENGTH + 1];
+        for (int i = 0; i < n; i++)
+            perLength[lens[i]]++;
+        long room = 1, left = n;
+        for (int l = 1; l <= MAX_CODE_LENGTH && room < left; l++) {
+            room = 2 * room - perLength[l];
+            left -= perLength[l];
+            if (room < 0)
+                throw new IOException("Malformed code table header");
+        }
+        int[] lengths = new int[size];
+        for (int i = 0; i < n; i++)
+            lengths[symbols[i]] = lens[i];
+        return canonical(lengths);
+    }
+
+    /**
+     * Returns the code bits of a symbol as a String of 1's and 0's, or null if
+     * the symbol has no code
+     */
+    public String toBitString(int symbol) {
+        int len = lengths[symbol];
+        if (len == 0)
+            return null;
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = len - 1; i >= 0; i--)
+            sb.append((codes[symbol] >>> i & 1) == 0 ? '0' : '1');
+        return sb.toString();
+    }
+
+    /**
+     * Returns the exact number of bits needed to encode symbols occurring with
+     * the given counts
+     *
+     * @param counts Occurrences of each symbol, indexed by symbol
+     */
+    public long encodedBits(long[] counts) {
+        long bits = 0;
+        for (int i = 0; i < counts.length; i++)
+            if (counts[i] != 0)
+                bits += counts[i] * lengths[i];
+        return bits;
+    }
+
+    /** Returns the number of bits write() takes for these codes */
+    public long headerBits() {
+        long bits = 0;
+        int n = 0, prev = -1;
+        for (int s = 0; s < lengths.length; s++)
+            if (lengths[s] != 0) {
+                bits += 8 * varLongSize(s - prev - 1) + 8;
+                prev = s;
+                n++;
+            }
+        return bits + 8 * varLongSize(n);
+    }
+
+    private static int varLongSize(long v) {
+        int n = 1;
+        while ((v & ~0x7FL) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    /** Returns the length of the longest code */
+    public int maxLength() {
+        int max = 0;
+        for (int l : lengths)
+            max = Math.max(max, l);
+        return max;
+    }
+
+    /** Returns the number of symbols the tables are indexed by */
+    public int size() {
+        return codes.length;
+    }
+
+    public long[] getCodes() {
+        return codes;
+    }
+
+    public int[] getLengths() {
+        return lengths;
+    }
+}
@@ -0,0 +1,102 @@
+package huffman;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class is one connection to a CompressionServer. Single calls wait for
+ * their reply; the methods taking a list send several requests before
+ * reading the replies, so the server can batch them. A client may be shared
+ * between threads, which then take turns on the connection.
+ */
+public class CompressionClient implements Closeable {
+    /** Most requests sent ahead of their replies by the list methods */
+    public static final int MAX_IN_FLIGHT = 64;
+
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(CompressionServer.FRAME_HEADER);
+    private int nextId;
+
+    /**
+     * Connects to a server
+     *
+     * @param address The address the server was started on
+     */
+    public CompressionClient(SocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        if (!(address instanceof UnixDomainSocketAddress))
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /** Compresses one message */
+    public byte[] compress(byte[] message) throws IOException {
+        return call(CompressionServer.COMPRESS, Collections.singletonList(message)).get(0);
+    }
+
+    /** Decompresses one message compressed by the server */
+    public byte[] decompress(byte[] encoded) throws IOException {
+        return call(CompressionServer.DECOMPRESS, Collections.singletonList(encoded)).get(0);
+    }
+
+    /** Compresses several messages, returning the results in the same order */
+    public List<byte[]> compress(List<byte[]> messages) throws IOException {
+        return call(CompressionServer.COMPRESS, messages);
+    }
+
+    /** Decompresses several messages, returning the results in the same order */
+    public List<byte[]> decompress(List<byte[]> encoded) throws IOException {
+        return call(CompressionServer.DECOMPRESS, encoded);
+    }
+
+    /** Returns the server's summary of its counters, queue and latencies */
+    public String stats() throws IOException {
+        byte[] text = call(CompressionServer.STATS, Collections.singletonList(new byte[0])).get(0);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Sends a request for each message, never more than MAX_IN_FLIGHT ahead of
+     * the replies, and puts each reply in the place of its request
+     */
+    private synchronized List<byte[]> call(byte op, List<byte[]> messages) throws IOException {
+        byte[][] replies = new byte[messages.size()][];
+        int firstId = nextId, sent = 0, received = 0;
+        IOException error = null;
+        while (received < messages.size()) {
+            while (sent < messages.size() && sent - received < MAX_IN_FLIGHT) {
+                byte[] message = messages.get(sent++);
+                ByteBuffer[] frame = {
+                        ByteBuffer.allocate(CompressionServer.FRAME_HEADER).putInt(nextId++).put(op)
+                                .putInt(message.length).flip(),
+                        ByteBuffer.wrap(message) };
+                while (frame[0].hasRemaining() || frame[1].hasRemaining())
+                    channel.write(frame);
+            }
+            header.clear();
+            if (!CompressionServer.readFully(channel, header))
+                throw new EOFException("Server closed the connection");
+            int index = header.getInt(0) - firstId, length = header.getInt(5);
+            if (index < 0 || index >= replies.length || length < 0)
+                throw new IOException("Malformed reply");
+            byte[] body = new byte[length];
+            CompressionServer.readFully(channel, ByteBuffer.wrap(body));
+            received++;
+            // Later replies are still read, so the connection stays usable
+            if (header.get(4) == CompressionServer.OK)
+                replies[index] = body;
+            else if (error == null)
+                error = new IOException(new String(body, StandardCharsets.UTF_8));
+        }
+        if (error != null)
+            throw error;
+        return Arrays.asList(replies);
+    }
+}
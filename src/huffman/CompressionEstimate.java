@@ -0,0 +1,143 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * This class estimates how large the Huffman codes of some bytes would be,
+ * from a histogram and the code lengths built for it, without coding
+ * anything. The histogram is either exact, as makeSortedList or a block
+ * coder counts it, or sampled from evenly spaced windows of a file, which
+ * costs a small fixed amount of reading however large the file is.
+ *
+ * Coders use the estimate to store input raw when coding it would save
+ * nothing, which skips the coding work for media and already compressed
+ * data.
+ */
+public class CompressionEstimate {
+    /** Bytes read by sample() unless another amount is given */
+    public static final int DEFAULT_SAMPLE_BYTES = 1 << 18;
+    /** Size of each window sample() reads */
+    public static final int SAMPLE_WINDOW = 1 << 12;
+    // Sampled estimates are a little optimistic, so files must look this much
+    // smaller before they are coded
+    private static final double SAMPLED_MARGIN = 0.97;
+
+    private final long inputBytes, encodedBytes;
+    private final boolean sampled;
+
+    private CompressionEstimate(long inputBytes, long encodedBytes, boolean sampled) {
+        this.inputBytes = inputBytes;
+        this.encodedBytes = encodedBytes;
+        this.sampled = sampled;
+    }
+
+    /**
+     * Estimates the size of coding symbols with the given counts, counting
+     * the code table as CodeTable.write() stores it. Since the counts are
+     * exact, so is the result, up to the final padding.
+     *
+     * @param counts     Occurrences of each byte or character, indexed by symbol
+     * @param maxLength  The longest code allowed
+     * @param inputBytes The size of the input the counts were taken from
+     */
+    public static CompressionEstimate of(long[] counts, int maxLength, long inputBytes) {
+        return of(CodeTable.fromCounts(counts, maxLength), counts, inputBytes);
+    }
+
+    /**
+     * Estimates the size of coding symbols with the given counts with codes
+     * which were already built for them
+     *
+     * @param codes      Codes covering every symbol which occurs
+     * @param counts     Occurrences of each byte or character, indexed by symbol
+     * @param inputBytes The size of the input the counts were taken from
+     */
+    public static CompressionEstimate of(CodeTable codes, long[] counts, long inputBytes) {
+        long bits = codes.headerBits() + codes.encodedBits(counts);
+        return new CompressionEstimate(inputBytes, (bits + 7) / 8, false);
+    }
+
+    /**
+     * Estimates the size of coding the bytes of a file from a sample of them
+     * spread evenly over it, reading it whole if it is no larger than the
+     * default sample
+     *
+     * @param fileName The file to look at
+     */
+    public static CompressionEstimate sample(String fileName) throws IOException {
+        return sample(fileName, DEFAULT_SAMPLE_BYTES, DecodeTable.DEFAULT_LOOKUP_BITS);
+    }
+
+    /**
+     * Estimates the size of coding the bytes of a file from windows of
+     * SAMPLE_WINDOW bytes spread evenly over it
+     *
+     * @param fileName    The file to look at
+     * @param sampleBytes About how many bytes to read
+     * @param maxLength   The longest code allowed
+     */
+    public static CompressionEstimate sample(String fileName, int sampleBytes, int maxLength) throws IOException {
+        long[] counts = new long[256];
+        long seen = 0, size;
+        try (FileChannel ch = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            size = ch.size();
+            // A file no larger than the sample is read whole, as one window
+            boolean whole = size <= Math.max(sampleBytes, SAMPLE_WINDOW);
+            int window = whole ? (int) size : SAMPLE_WINDOW;
+            long windows = whole ? 1 : Math.max(1, sampleBytes / SAMPLE_WINDOW);
+            ByteBuffer buf = ByteBuffer.allocate(window);
+            for (long w = 0; w < windows; w++) {
+                long position = windows == 1 ? 0 : (size - window) / (windows - 1) * w;
+                buf.clear();
+                while (buf.hasRemaining() && ch.read(buf, position + buf.position()) > 0)
+                    ;
+                for (int i = 0; i < buf.position(); i++)
+                    counts[buf.get(i) & 0xFF]++;
+                seen += buf.position();
+            }
+        }
+        if (seen == size)
+            return of(counts, maxLength, size);
+        CodeTable codes = CodeTable.fromCounts(counts, maxLength);
+        double bitsPerByte = (double) codes.encodedBits(counts) / seen;
+        long bits = codes.headerBits() + (long) Math.ceil(bitsPerByte * size);
+        return new CompressionEstimate(size, (bits + 7) / 8, true);
+    }
+
+    /**
+     * Returns whether coding is expected to make the input smaller. A sampled
+     * estimate must promise a few percent to count, since the bytes it didn't
+     * read may be harder to code.
+     */
+    public boolean isWorthCoding() {
+        return encodedBytes < (sampled ? inputBytes * SAMPLED_MARGIN : inputBytes);
+    }
+
+    /** Returns the size of the input */
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    /** Returns the estimated size of the codes and their table */
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    /** Returns whether the estimate was made from a sample of the input */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /** Returns the estimated encoded size over the input size */
+    public double ratio() {
+        return inputBytes == 0 ? 0 : (double) encodedBytes / inputBytes;
+    }
+
+    public String toString() {
+        return String.format("%d -> %d bytes (ratio %.4f%s)", inputBytes, encodedBytes, ratio(),
+                sampled ? ", sampled" : "");
+    }
+}
@@ -0,0 +1,44 @@
+package huffman;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event summing up one encode or decode once it finishes
+ */
+@Name("huffman.Compression")
+@Label("Huffman Compression")
+@Category("Huffman")
+@Description("A finished Huffman encode or decode")
+@StackTrace(false)
+class CompressionEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Uncompressed Size")
+    @DataAmount
+    long inputBytes;
+
+    @Label("Compressed Size")
+    @DataAmount
+    long outputBytes;
+
+    @Label("Compression Ratio")
+    double ratio;
+
+    @Label("Distinct Symbols")
+    int distinctSymbols;
+
+    @Label("Max Code Length")
+    int maxCodeLength;
+
+    @Label("Peak Buffer Usage")
+    @DataAmount
+    long peakBufferBytes;
+
+    @Label("Total Stage Time")
+    @Timespan
+    long totalNanos;
+}
@@ -0,0 +1,176 @@
+package huffman;
+
+/**
+ * This class records what one compression job did in each stage: how long it
+ * took, how much of that was spent waiting on I/O and how many bytes it
+ * processed, along with figures about the job as a whole. HuffmanCoding fills
+ * one in as its methods run, and every finished stage is also sent to
+ * HuffmanMetrics and recorded as a StageEvent for Flight Recorder.
+ */
+public class CompressionMetrics {
+    private static final Stage[] STAGES = Stage.values();
+
+    private final String fileName;
+    private final long[] nanos = new long[STAGES.length];
+    private final long[] ioNanos = new long[STAGES.length];
+    private final long[] bytes = new long[STAGES.length];
+    private int distinctSymbols;
+    private int maxCodeLength;
+    private long inputBytes;
+    private long outputBytes;
+    private long peakBufferBytes;
+    // Times the whole job, from when it starts until finish()
+    private CompressionEvent event;
+
+    /**
+     * Starts timing a job
+     *
+     * @param fileName The file the job works on, used to label its events
+     */
+    public CompressionMetrics(String fileName) {
+        this.fileName = fileName;
+        event = new CompressionEvent();
+        event.begin();
+    }
+
+    /**
+     * Starts timing a stage. The returned event is handed back to endStage
+     * once the stage is done.
+     */
+    StageEvent beginStage() {
+        StageEvent event = new StageEvent();
+        event.begin();
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    /**
+     * Records a finished stage, replacing any earlier run of the same stage
+     *
+     * @param event   The event returned by beginStage
+     * @param stage   The stage which finished
+     * @param bytes   Number of bytes the stage read or wrote
+     * @param ioNanos Part of the stage spent waiting on I/O, in nanoseconds
+     */
+    void endStage(StageEvent event, Stage stage, long bytes, long ioNanos) {
+        long elapsed = System.nanoTime() - event.startNanos;
+        int i = stage.ordinal();
+        nanos[i] = elapsed;
+        this.ioNanos[i] = ioNanos;
+        this.bytes[i] = bytes;
+        HuffmanMetrics.get().recordStage(stage, elapsed, bytes);
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = fileName;
+            event.stage = stage.name();
+            event.bytes = bytes;
+            event.ioNanos = ioNanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a finished encode or decode as a whole, sending it to
+     * HuffmanMetrics and recording a CompressionEvent
+     *
+     * @param encoding True for an encode, false for a decode
+     */
+    void finish(boolean encoding) {
+        HuffmanMetrics.get().recordRun(this, encoding);
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = fileName;
+            event.operation = encoding ? "encode" : "decode";
+            event.inputBytes = inputBytes;
+            event.outputBytes = outputBytes;
+            event.ratio = ratio();
+            event.distinctSymbols = distinctSymbols;
+            event.maxCodeLength = maxCodeLength;
+            event.peakBufferBytes = peakBufferBytes;
+            for (Stage stage : STAGES)
+                event.totalNanos += nanos[stage.ordinal()];
+            event.commit();
+        }
+        // A later job on the same file is timed from here
+        event = new CompressionEvent();
+        event.begin();
+    }
+
+    /** Notes that a stage held the given number of bytes of buffers at once */
+    void noteBuffers(long bufferBytes) {
+        peakBufferBytes = Math.max(peakBufferBytes, bufferBytes);
+    }
+
+    void setDistinctSymbols(int distinctSymbols) {
+        this.distinctSymbols = distinctSymbols;
+    }
+
+    void setMaxCodeLength(int maxCodeLength) {
+        this.maxCodeLength = maxCodeLength;
+    }
+
+    void setSizes(long inputBytes, long outputBytes) {
+        this.inputBytes = inputBytes;
+        this.outputBytes = outputBytes;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /** Returns the wall time of the last run of a stage in nanoseconds */
+    public long getNanos(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    /** Returns the part of getNanos(stage) spent waiting on I/O */
+    public long getIoNanos(Stage stage) {
+        return ioNanos[stage.ordinal()];
+    }
+
+    /** Returns the number of bytes the last run of a stage read or wrote */
+    public long getBytes(Stage stage) {
+        return bytes[stage.ordinal()];
+    }
+
+    /** Number of different symbols the file holds */
+    public int getDistinctSymbols() {
+        return distinctSymbols;
+    }
+
+    /** Length of the longest code the tree gave any symbol */
+    public int getMaxCodeLength() {
+        return maxCodeLength;
+    }
+
+    /** Size of the uncompressed side of the last encode or decode */
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    /** Size of the compressed side of the last encode or decode */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /** Largest amount of buffer space any stage held at once, in bytes */
+    public long getPeakBufferBytes() {
+        return peakBufferBytes;
+    }
+
+    /** Returns compressed size over original size, or 0 before any coding */
+    public double ratio() {
+        return inputBytes == 0 ? 0 : (double) outputBytes / inputBytes;
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder(fileName).append(':');
+        for (Stage stage : STAGES) {
+            int i = stage.ordinal();
+            s.append(String.format(" %s=%.3fms/%dB(io %.3fms)", stage.name().toLowerCase(), nanos[i] / 1e6,
+                    bytes[i], ioNanos[i] / 1e6));
+        }
+        return s.append(String.format(" symbols=%d maxLength=%d ratio=%.4f peakBuffers=%dB", distinctSymbols,
+                maxCodeLength, ratio(), peakBufferBytes)).toString();
+    }
+}
@@ -0,0 +1,464 @@
+package huffman;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class is a compression service for other processes on the same host,
+ * listening on a local TCP port or a Unix domain socket. It is meant for many
+ * small messages, where building a HuffmanCoding, its tree and its file I/O
+ * for each one would cost far more than the coding itself.
+ *
+ * Every connection has a thread which reads its requests into one queue, and
+ * another which writes its replies, so a client that stops reading holds up no
+ * worker and is closed once REPLY_QUEUE replies are waiting. A fixed set of
+ * workers takes requests off the queue, as many as are waiting up to a batch
+ * size. Each worker has a context it reuses for every batch, holding a
+ * histogram of the bytes it has compressed and the trained table built from
+ * it. The messages of a batch are counted in one pass and coded with that one
+ * table, which is rebuilt only after enough new bytes, so small messages pay
+ * for no table at all. Tables come from a TableCache, which hands back the
+ * same table while the data keeps its distribution, and are added to a
+ * TableRegistry, so decompress requests, and anything else holding the
+ * registry, can decode the results. Unless given another, the server has its
+ * own registry of the MAX_TABLES most recently used tables, so a result can be
+ * decompressed until that many other tables have been used after its own. The
+ * server can also be given one fixed table, in which case it never builds any.
+ *
+ * Requests and replies are framed the same way, as big-endian numbers:
+ *   request: int id, byte op, int length, length bytes
+ *   reply:   int id, byte status, int length, length bytes
+ * The id is chosen by the client and copied into the reply, since requests
+ * sent together on one connection may be answered in any order. A reply with
+ * status ERROR carries a UTF-8 message instead of data.
+ *
+ * Usage: java huffman.Driver serve PORT|SOCKET_PATH [workers]
+ */
+public class CompressionServer implements Closeable {
+    /** Codes a message with a trained table, see TrainedTable.encode */
+    public static final byte COMPRESS = 1;
+    /** Decodes a message compressed by the server */
+    public static final byte DECOMPRESS = 2;
+    /** Returns the text of stats() */
+    public static final byte STATS = 3;
+    /** Status of a reply carrying data */
+    public static final byte OK = 0;
+    /** Status of a reply carrying an error message */
+    public static final byte ERROR = 1;
+    /** Largest message accepted, connections sending larger ones are closed */
+    public static final int MAX_MESSAGE = 1 << 24;
+    /** Most requests handled as one batch unless another size is given */
+    public static final int DEFAULT_MAX_BATCH = 64;
+    /** Most requests waiting in the queue before readers stop reading */
+    public static final int QUEUE_CAPACITY = 4096;
+    /** Most replies waiting to be written to a connection before it is closed */
+    public static final int REPLY_QUEUE = 1024;
+    /** Most tables kept by the registry the server makes for itself */
+    public static final int MAX_TABLES = 1024;
+    /** Most bytes compressed between two table builds of a worker */
+    public static final int REBUILD_BYTES = 1 << 16;
+    // Past this many bytes a worker's history is halved, so it follows the data
+    private static final long HISTORY_BYTES = 1 << 20;
+    // Bytes of the id, op or status, and length before each message
+    static final int FRAME_HEADER = 9;
+
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final BlockingQueue<Request> queue = new ArrayBlockingQueue<Request>(QUEUE_CAPACITY);
+    private final int maxBatch;
+    private final TableRegistry registry;
+    private final TableCache tables = new TableCache();
+    private volatile TrainedTable fixedTable;
+    private final Thread[] workers;
+    private final ExecutorService connectionThreads;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean open = true;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder(), batches = new LongAdder(), failures = new LongAdder();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * Starts a server with a worker per processor and the default batch size,
+     * adding its tables to a registry of its own holding MAX_TABLES
+     *
+     * @param address An InetSocketAddress, normally on the loopback interface,
+     *                or a UnixDomainSocketAddress
+     */
+    public CompressionServer(SocketAddress address) throws IOException {
+        this(address, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BATCH,
+                new TableRegistry(MAX_TABLES));
+    }
+
+    /**
+     * Binds the address and starts accepting connections
+     *
+     * @param address  An InetSocketAddress, normally on the loopback interface,
+     *                 or a UnixDomainSocketAddress
+     * @param workers  Number of worker threads, each with its own context
+     * @param maxBatch Most requests handled as one batch
+     * @param registry Where tables built by the server are added and where
+     *                 decompress requests look them up
+     */
+    public CompressionServer(SocketAddress address, int workers, int maxBatch, TableRegistry registry)
+            throws IOException {
+        if (workers <= 0 || maxBatch <= 0)
+            throw new IllegalArgumentException("Workers and batch size must be positive");
+        this.maxBatch = maxBatch;
+        this.registry = registry;
+        server = address instanceof UnixDomainSocketAddress ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            this.address = server.getLocalAddress();
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        connectionThreads = Executors.newCachedThreadPool(task -> daemon(task, "huffman-server-connection"));
+        this.workers = new Thread[workers];
+        for (int i = 0; i < workers; i++)
+            (this.workers[i] = daemon(this::work, "huffman-server-worker-" + i)).start();
+        daemon(this::accept, "huffman-server-accept").start();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: serve PORT|SOCKET_PATH [workers]");
+            System.exit(2);
+        }
+        try {
+            SocketAddress address = args[0].matches("\\d+")
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]))
+                    : UnixDomainSocketAddress.of(args[0]);
+            int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            CompressionServer server = new CompressionServer(address, workers, DEFAULT_MAX_BATCH,
+                    new TableRegistry(MAX_TABLES));
+            System.err.println("Listening on " + server.getAddress());
+            while (true) {
+                Thread.sleep(60_000);
+                System.err.println(server.stats());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e);
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Makes every compress request use the given table instead of one built
+     * from the data, or goes back to building tables if it is null
+     */
+    public void setTable(TrainedTable table) {
+        if (table != null)
+            registry.addIfAbsent(table);
+        fixedTable = table;
+    }
+
+    /** Returns the address the server is bound to, with the real port if 0 was asked for */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /** Returns the number of requests waiting for a worker */
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /** Returns the largest number of requests that have waited at once */
+    public int maxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /** Returns the time from reading each request to queuing its reply */
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    /** Returns the number of requests answered, including failed ones */
+    public long requestCount() {
+        return requests.sum();
+    }
+
+    /** Returns the number of batches the workers have handled */
+    public long batchCount() {
+        return batches.sum();
+    }
+
+    /** Returns a one line summary of the counters, queue and latencies */
+    public String stats() {
+        long n = requests.sum(), b = batches.sum();
+        return String.format("requests %d (%d failed), batches %d (%.1f per batch), tables built %d,"
+                + " queue %d (max %d), latency p50 %dus p99 %dus p99.9 %dus", n, failures.sum(), b,
+                b == 0 ? 0.0 : (double) n / b, tables.misses(), queue.size(), maxQueueDepth.get(),
+                latency.percentile(50) / 1000, latency.percentile(99) / 1000, latency.percentile(99.9) / 1000);
+    }
+
+    /**
+     * Stops accepting, closes every connection and stops the workers.
+     * Requests still queued are dropped.
+     */
+    public void close() throws IOException {
+        open = false;
+        try {
+            server.close();
+            for (Connection connection : connections)
+                connection.close();
+        } finally {
+            connectionThreads.shutdownNow();
+            for (Thread worker : workers)
+                worker.interrupt();
+            if (address instanceof UnixDomainSocketAddress)
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+    }
+
+    private void accept() {
+        while (open)
+            try {
+                SocketChannel channel = server.accept();
+                if (!(address instanceof UnixDomainSocketAddress))
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel);
+                connections.add(connection);
+                connectionThreads.execute(() -> read(connection));
+                connectionThreads.execute(connection::write);
+            } catch (IOException | RejectedExecutionException e) {
+                if (open)
+                    e.printStackTrace();
+                return;
+            }
+    }
+
+    /** Reads the requests of one connection until it closes */
+    private void read(Connection connection) {
+        SocketChannel channel = connection.channel;
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+        try {
+            while (open) {
+                header.clear();
+                if (!readFully(channel, header))
+                    break;
+                int id = header.getInt(0), length = header.getInt(5);
+                byte op = header.get(4);
+                if (length < 0 || length > MAX_MESSAGE)
+                    break;
+                byte[] message = new byte[length];
+                if (!readFully(channel, ByteBuffer.wrap(message)))
+                    break;
+                queue.put(new Request(connection, id, op, message, System.nanoTime()));
+                maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+            }
+        } catch (IOException e) {
+            // The client went away, there is no one to tell
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /** Runs batches until the server is closed */
+    private void work() {
+        Context context = new Context();
+        List<Request> batch = new ArrayList<Request>(maxBatch);
+        try {
+            while (open) {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - 1);
+                batches.increment();
+                context.run(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * The state a worker reuses from batch to batch: a histogram of the bytes
+     * it has compressed, in which older batches count for less and less, and
+     * the table last built from it
+     */
+    private class Context {
+        private final long[] history = new long[TrainedTable.ALPHABET];
+        private final long[] smoothed = new long[TrainedTable.ALPHABET];
+        private final SymbolKernels kernels = SymbolKernels.get();
+        private TrainedTable table;
+        // Bytes added to history since table was built
+        private long pending;
+
+        void run(List<Request> batch) {
+            TrainedTable batchTable = null;
+            for (Request r : batch)
+                try {
+                    switch (r.op) {
+                        case COMPRESS:
+                            if (batchTable == null)
+                                batchTable = table(batch);
+                            r.reply(OK, batchTable.encode(r.message));
+                            break;
+                        case DECOMPRESS:
+                            r.reply(OK, registry.decode(r.message));
+                            break;
+                        case STATS:
+                            r.reply(OK, stats().getBytes(StandardCharsets.UTF_8));
+                            break;
+                        default:
+                            throw new IOException("Unknown operation " + r.op);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failures.increment();
+                    r.reply(ERROR, String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                }
+        }
+
+        /**
+         * Returns the table for every compress request of the batch, counting
+         * them into the history and building a new table once the history has
+         * gained as many bytes as it had, or REBUILD_BYTES
+         */
+        private TrainedTable table(List<Request> batch) {
+            // Adding again keeps a table in use from being dropped by the registry
+            TrainedTable fixed = fixedTable;
+            if (fixed != null)
+                return registry.addIfAbsent(fixed);
+            for (Request r : batch)
+                if (r.op == COMPRESS) {
+                    kernels.count(r.message, 0, r.message.length, history);
+                    pending += r.message.length;
+                }
+            long total = 0;
+            for (long c : history)
+                total += c;
+            if (table == null || pending >= Math.min(REBUILD_BYTES, total - pending)) {
+                if (total > HISTORY_BYTES)
+                    for (int s = 0; s < history.length; s++)
+                        history[s] >>= 1;
+                // As in TrainedTable.fromCounts, so every byte has a code
+                for (int s = 0; s < smoothed.length; s++)
+                    smoothed[s] = history[s] + 1;
+                CodeTable codes = tables.encoder(smoothed, DecodeTable.DEFAULT_LOOKUP_BITS);
+                table = new TrainedTable(codes);
+                pending = 0;
+            }
+            return table = registry.addIfAbsent(table);
+        }
+    }
+
+    /**
+     * One client, whose replies are queued by the workers and written by a
+     * thread of its own
+     */
+    private class Connection {
+        final SocketChannel channel;
+        private final BlockingQueue<ByteBuffer[]> replies = new ArrayBlockingQueue<ByteBuffer[]>(REPLY_QUEUE);
+        // The thread running write(), guarded by this
+        private Thread writer;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /** Queues a frame to be written, closing the connection if too many are waiting */
+        void send(ByteBuffer[] frame) {
+            if (!replies.offer(frame))
+                close();
+        }
+
+        /** Writes queued replies until the connection closes */
+        void write() {
+            synchronized (this) {
+                writer = Thread.currentThread();
+            }
+            try {
+                while (channel.isOpen()) {
+                    ByteBuffer[] frame = replies.take();
+                    while (frame[0].hasRemaining() || frame[1].hasRemaining())
+                        channel.write(frame);
+                }
+            } catch (IOException | InterruptedException e) {
+                // Closed by either end
+            } finally {
+                // The pool thread goes on to other connections, so it must not keep an interrupt meant for this one
+                synchronized (this) {
+                    writer = null;
+                    Thread.interrupted();
+                }
+                close();
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            closeQuietly(channel);
+            // The channel is closed first, so a writer not seen here stops on its own
+            synchronized (this) {
+                if (writer != null && writer != Thread.currentThread())
+                    writer.interrupt();
+            }
+        }
+    }
+
+    /** One request, which replies on the connection it came from */
+    private class Request {
+        final Connection connection;
+        final int id;
+        final byte op;
+        final byte[] message;
+        final long received;
+
+        Request(Connection connection, int id, byte op, byte[] message, long received) {
+            this.connection = connection;
+            this.id = id;
+            this.op = op;
+            this.message = message;
+            this.received = received;
+        }
+
+        void reply(byte status, byte[] body) {
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER).putInt(id).put(status).putInt(body.length);
+            connection.send(new ByteBuffer[] { header.flip(), ByteBuffer.wrap(body) });
+            requests.increment();
+            latency.record(System.nanoTime() - received);
+        }
+    }
+
+    /**
+     * Fills buf from the channel, returning false if it closed before the
+     * first byte
+     */
+    static boolean readFully(ReadableByteChannel channel, ByteBuffer buf) throws IOException {
+        boolean empty = buf.position() == 0;
+        while (buf.hasRemaining())
+            if (channel.read(buf) < 0) {
+                if (empty && buf.position() == 0)
+                    return false;
+                throw new EOFException("Connection closed in the middle of a message");
+            }
+        return true;
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already going away
+        }
+    }
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,276 @@
+package huffman;
+
+import java.io.*;
+
+/**
+ * This class reads and writes the order-1 context format, where each byte is
+ * coded with a table chosen by the byte before it. Text and structured logs
+ * are far more predictable given the previous byte than on their own, so
+ * these tables give much shorter codes than the one table of the other
+ * formats.
+ *
+ * A context only gets its own table when the bits it saves pay for storing
+ * it. Rare contexts share one order-0 fallback table built from the bytes
+ * which follow them.
+ *
+ * Each block is coded as two streams, its first half and its second half,
+ * whose first bytes are both coded in the context of a 0 byte. The decoder
+ * can't look up a code before it knows the byte before it, but it can work
+ * on both halves in the same loop, so one half's lookups overlap the other's.
+ *
+ * The encoded file is a CONTEXT header and the block size, then the blocks,
+ * and finally an empty block. A block is its length, the number of contexts
+ * with their own table, each as its gap from the previous one followed by its
+ * table, then the fallback table, the bit length of each half's codes and,
+ * from the next byte boundary, the codes of each half padded to a whole
+ * byte. Codes are at most
+ * DecodeTable.DEFAULT_LOOKUP_BITS long so every symbol takes one lookup.
+ */
+public class ContextHuffman {
+    /** Block size used unless another is given, large enough to pay for the tables */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    private static final int ALPHABET = 256;
+    private static final int MAX_LENGTH = DecodeTable.DEFAULT_LOOKUP_BITS;
+
+    private final int blockSize;
+
+    public ContextHuffman() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize Number of input bytes per block
+     */
+    public ContextHuffman(int blockSize) {
+        if (blockSize <= 0 || blockSize > HuffmanInputStream.MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be from 1 to " + HuffmanInputStream.MAX_BLOCK_SIZE);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Encodes inputFile into encodedFile
+     *
+     * @param inputFile   The file to encode, read as raw bytes
+     * @param encodedFile The file to write, which doesn't need to exist yet
+     */
+    public void encode(String inputFile, String encodedFile) throws IOException {
+        byte[] raw = new byte[blockSize];
+        byte[] coded = new byte[(int) (((long) blockSize * MAX_LENGTH + 7) / 8)];
+        try (SymbolReader in = new SymbolReader(inputFile, false);
+                BitWriter out = new BitWriter(encodedFile)) {
+            FileFormat.writeHeader(out, FileFormat.CONTEXT);
+            out.writeVarLong(blockSize);
+            for (int len = in.readBlock(raw); len > 0; len = in.readBlock(raw))
+                writeBlock(out, raw, len, coded);
+            out.writeVarLong(0);
+        }
+    }
+
+    /**
+     * Decodes a file written by encode() into decodedFile
+     *
+     * @param encodedFile The file written by encode()
+     * @param decodedFile The file to write, which doesn't need to exist yet
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        try (BitReader in = new BitReader(encodedFile);
+                SymbolWriter out = new SymbolWriter(decodedFile)) {
+            if (FileFormat.readHeader(in) != FileFormat.CONTEXT)
+                throw new IOException(encodedFile + " is not a context coded file");
+            long blockSize = in.readVarLong();
+            if (blockSize <= 0 || blockSize > HuffmanInputStream.MAX_BLOCK_SIZE)
+                throw new IOException("Unsupported block size " + blockSize);
+            byte[] raw = new byte[(int) blockSize];
+            byte[] coded = new byte[0];
+            int[] lookups = new int[0];
+            int[] contexts = new int[ALPHABET];
+            for (long len = in.readVarLong(); len > 0; len = in.readVarLong()) {
+                if (len > blockSize)
+                    throw new IOException("Block of " + len + " bytes is larger than the block size");
+                lookups = readTables(in, lookups, contexts);
+                long first = in.readVarLong(), second = in.readVarLong();
+                if (first > len * MAX_LENGTH || second > len * MAX_LENGTH)
+                    throw new IOException("Malformed code length");
+                int bytes = (int) ((first + 7) / 8 + (second + 7) / 8);
+                in.alignToByte();
+                coded = in.readBytesPadded(coded, bytes);
+                decodeCodes(coded, first, second, lookups, contexts, raw, (int) len);
+                out.write(raw, 0, (int) len);
+            }
+        }
+    }
+
+    private static void writeBlock(BitWriter out, byte[] raw, int len, byte[] coded) throws IOException {
+        int half = (len + 1) / 2;
+        long[][] counts = new long[ALPHABET][ALPHABET];
+        long[] all = new long[ALPHABET];
+        for (int i = 0, ctx = 0; i < len; i++) {
+            int s = raw[i] & 0xFF;
+            counts[i == half ? 0 : ctx][s]++;
+            all[s]++;
+            ctx = s;
+        }
+
+        // Give a context its own table only if that beats the order-0 codes
+        // by more than the table costs to store
+        CodeTable order0 = CodeTable.fromCounts(all, MAX_LENGTH);
+        CodeTable[] tables = new CodeTable[ALPHABET];
+        long[] rest = new long[ALPHABET];
+        int own = 0;
+        for (int ctx = 0; ctx < ALPHABET; ctx++) {
+            if (isEmpty(counts[ctx]))
+                continue;
+            CodeTable table = CodeTable.fromCounts(counts[ctx], MAX_LENGTH);
+            if (table.encodedBits(counts[ctx]) + table.headerBits() + 8 < order0.encodedBits(counts[ctx])) {
+                tables[ctx] = table;
+                own++;
+            } else
+                for (int s = 0; s < ALPHABET; s++)
+                    rest[s] += counts[ctx][s];
+        }
+        CodeTable fallback = CodeTable.fromCounts(rest, MAX_LENGTH);
+
+        out.writeVarLong(len);
+        out.writeVarLong(own);
+        for (int ctx = 0, prev = -1; ctx < ALPHABET; ctx++)
+            if (tables[ctx] != null) {
+                out.writeVarLong(ctx - prev - 1);
+                tables[ctx].write(out);
+                prev = ctx;
+            }
+        fallback.write(out);
+
+        long[][] code = new long[ALPHABET][];
+        int[][] length = new int[ALPHABET][];
+        for (int ctx = 0; ctx < ALPHABET; ctx++) {
+            CodeTable t = tables[ctx] != null ? tables[ctx] : fallback;
+            code[ctx] = t.getCodes();
+            length[ctx] = t.getLengths();
+        }
+        long first = pack(raw, 0, half, code, length, coded, 0);
+        int at = (int) ((first + 7) / 8);
+        long second = pack(raw, half, len, code, length, coded, at);
+        out.writeVarLong(first);
+        out.writeVarLong(second);
+        out.alignToByte();
+        out.writeBytes(coded, 0, at + (int) ((second + 7) / 8));
+    }
+
+    /**
+     * Codes raw[from] to raw[to - 1] into coded from byte at, the first byte
+     * in the context of a 0 byte
+     *
+     * @return The number of bits of codes
+     */
+    private static long pack(byte[] raw, int from, int to, long[][] code, int[][] length, byte[] coded, int at) {
+        long acc = 0, bits = 0;
+        int fill = 0;
+        for (int i = from, ctx = 0; i < to; i++) {
+            int s = raw[i] & 0xFF;
+            acc = acc << length[ctx][s] | code[ctx][s];
+            fill += length[ctx][s];
+            bits += length[ctx][s];
+            while (fill >= 8) {
+                fill -= 8;
+                coded[at++] = (byte) (acc >>> fill);
+            }
+            ctx = s;
+        }
+        if (fill > 0)
+            coded[at] = (byte) (acc << (8 - fill));
+        return bits;
+    }
+
+    /**
+     * Reads the tables of a block and copies their lookup tables one after
+     * another into lookups, or a larger array if it is too small. For every
+     * context, contexts gets where its table starts shifted left by 6, or'ed
+     * with the bits to shift a left-aligned window right to index it.
+     *
+     * @return The array holding the lookup tables
+     */
+    private static int[] readTables(BitReader in, int[] lookups, int[] contexts) throws IOException {
+        long n = in.readVarLong();
+        if (n > ALPHABET)
+            throw new IOException("Malformed context count " + n);
+        DecodeTable[] tables = new DecodeTable[ALPHABET + 1];
+        for (long i = 0, ctx = -1; i < n; i++) {
+            ctx += 1 + in.readVarLong();
+            if (ctx >= ALPHABET)
+                throw new IOException("Malformed context " + ctx);
+            tables[(int) ctx] = new DecodeTable(CodeTable.read(in, ALPHABET));
+        }
+        tables[ALPHABET] = new DecodeTable(CodeTable.read(in, ALPHABET));
+
+        // One flat array keeps the lookup of the next table a single load away
+        int size = 0;
+        for (DecodeTable t : tables)
+            if (t != null)
+                size += 1 << t.getLookupBits();
+        if (lookups.length < size)
+            lookups = new int[size];
+        int[] starts = new int[ALPHABET + 1];
+        for (int ctx = 0, at = 0; ctx <= ALPHABET; ctx++)
+            if (tables[ctx] != null) {
+                int[] lookup = tables[ctx].singleLookupTable();
+                if (lookup == null)
+                    throw new IOException("Block codes are longer than " + MAX_LENGTH + " bits");
+                System.arraycopy(lookup, 0, lookups, at, lookup.length);
+                starts[ctx] = at << 6 | (64 - tables[ctx].getLookupBits());
+                at += lookup.length;
+            }
+        for (int ctx = 0; ctx < ALPHABET; ctx++)
+            contexts[ctx] = tables[ctx] != null ? starts[ctx] : starts[ALPHABET];
+        return lookups;
+    }
+
+    /**
+     * Decodes the codes of both halves of a block into raw, switching tables
+     * on every byte
+     *
+     * @param coded  The codes of each half, followed by 8 spare bytes
+     * @param first  The bit length of the first half's codes
+     * @param second The bit length of the second half's codes
+     */
+    private static void decodeCodes(byte[] coded, long first, long second, int[] lookups, int[] contexts,
+            byte[] raw, int len) throws IOException {
+        int half = (len + 1) / 2;
+        long p0 = 0, start = 8 * ((first + 7) / 8), p1 = start;
+        int c0 = contexts[0], c1 = contexts[0];
+        try {
+            for (int i = 0, end = len - half; i < end; i++) {
+                long w0 = BitReader.longAt(coded, (int) (p0 >>> 3)) << (p0 & 7);
+                long w1 = BitReader.longAt(coded, (int) (p1 >>> 3)) << (p1 & 7);
+                int e0 = lookups[(c0 >>> 6) + (int) (w0 >>> (c0 & 63))];
+                int e1 = lookups[(c1 >>> 6) + (int) (w1 >>> (c1 & 63))];
+                if (e0 == 0 || e1 == 0)
+                    throw new IOException("Invalid code in encoded data");
+                raw[i] = (byte) (e0 >>> 8);
+                raw[half + i] = (byte) (e1 >>> 8);
+                c0 = contexts[e0 >>> 8];
+                c1 = contexts[e1 >>> 8];
+                p0 += e0 & 0xFF;
+                p1 += e1 & 0xFF;
+            }
+            if (half > len - half) {
+                long w0 = BitReader.longAt(coded, (int) (p0 >>> 3)) << (p0 & 7);
+                int e0 = lookups[(c0 >>> 6) + (int) (w0 >>> (c0 & 63))];
+                if (e0 == 0)
+                    throw new IOException("Invalid code in encoded data");
+                raw[half - 1] = (byte) (e0 >>> 8);
+                p0 += e0 & 0xFF;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Codes run past the end of their block", e);
+        }
+        if (p0 != first || p1 - start != second)
+            throw new IOException("Block codes do not match their recorded bit lengths");
+    }
+
+    private static boolean isEmpty(long[] counts) {
+        for (long c : counts)
+            if (c != 0)
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,125 @@
+package huffman;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class decodes a prefix code one symbol per lookup, using a table
+ * indexed by the next few bits of input. Codes longer than the table width
+ * fall back to walking a flat array trie from the node the table points at.
+ */
+public class DecodeTable {
+    /** Lookup width used unless every code is shorter */
+    public static final int DEFAULT_LOOKUP_BITS = 11;
+
+    private final int lookupBits;
+    // A positive entry is symbol << 8 | code length, a negative entry is the
+    // negated trie node reached after lookupBits bits, 0 means no code
+    private final int[] table;
+    private int[] left, right, symbol;
+    private int nodes;
+
+    public DecodeTable(CodeTable codes) {
+        this(codes, DEFAULT_LOOKUP_BITS);
+    }
+
+    /**
+     * Builds the lookup table for the given codes
+     *
+     * @param codes      The prefix code to decode
+     * @param lookupBits The table width, from 8 to 12, reduced to the longest
+     *                   code length if that is shorter
+     */
+    public DecodeTable(CodeTable codes, int lookupBits) {
+        if (lookupBits < 8 || lookupBits > 12)
+            throw new IllegalArgumentException("Lookup width must be from 8 to 12 bits");
+        long[] code = codes.getCodes();
+        int[] length = codes.getLengths();
+        this.lookupBits = Math.max(1, Math.min(lookupBits, codes.maxLength()));
+        table = new int[1 << this.lookupBits];
+
+        for (int s = 0; s < code.length; s++) {
+            int len = length[s];
+            if (len == 0)
+                continue;
+            if (len <= this.lookupBits) {
+                // Every index starting with this code resolves to it
+                int first = (int) code[s] << (this.lookupBits - len);
+                Arrays.fill(table, first, first + (1 << (this.lookupBits - len)), s << 8 | len);
+            } else
+                addToTrie(s, code[s], len);
+        }
+    }
+
+    /**
+     * Reads one code from in and returns its symbol
+     */
+    public int decode(BitReader in) throws IOException {
+        int e = table[(int) in.peekBits(lookupBits)];
+        if (e > 0) {
+            in.skipBits(e & 0xFF);
+            return e >>> 8;
+        }
+        if (e == 0)
+            throw new IOException("Invalid code in encoded data");
+        in.skipBits(lookupBits);
+        int node = -e;
+        while (symbol[node] < 0) {
+            node = in.readBit() == 0 ? left[node] : right[node];
+            if (node == 0)
+                throw new IOException("Invalid code in encoded data");
+        }
+        return symbol[node];
+    }
+
+    /**
+     * Returns the lookup table itself, whose entries are symbol << 8 | code
+     * length, or null if some code is longer than the table width. Entries of
+     * bit patterns which start no code are 0. Callers must not change it.
+     */
+    int[] singleLookupTable() {
+        return symbol == null ? table : null;
+    }
+
+    /** Returns the table width in bits */
+    public int getLookupBits() {
+        return lookupBits;
+    }
+
+    private void addToTrie(int s, long code, int len) {
+        if (symbol == null) {
+            left = new int[16];
+            right = new int[16];
+            symbol = new int[16];
+            symbol[0] = -1;
+            nodes = 1;
+        }
+        int node = 0;
+        for (int i = len - 1; i >= 0; i--) {
+            boolean one = ((code >>> i) & 1) != 0;
+            int next = one ? right[node] : left[node];
+            if (next == 0) {
+                next = newNode();
+                if (one)
+                    right[node] = next;
+                else
+                    left[node] = next;
+            }
+            node = next;
+            // The node after lookupBits bits is where the table hands over
+            if (i == len - lookupBits)
+                table[(int) (code >>> i)] = -node;
+        }
+        symbol[node] = s;
+    }
+
+    private int newNode() {
+        if (nodes == symbol.length) {
+            left = Arrays.copyOf(left, nodes * 2);
+            right = Arrays.copyOf(right, nodes * 2);
+            symbol = Arrays.copyOf(symbol, nodes * 2);
+        }
+        symbol[nodes] = -1;
+        return nodes++;
+    }
+}
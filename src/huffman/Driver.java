@@ -11,6 +11,16 @@ import java.io.*;
  */
 public class Driver {
     public static void main(String[] args) {
+        // "batch compress|decompress ..." runs without the menu, see BatchCompressor
+        if (args.length > 0 && args[0].equals("batch")) {
+            BatchCompressor.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // "serve PORT|SOCKET_PATH [workers]" runs a CompressionServer
+        if (args.length > 0 && args[0].equals("serve")) {
+            CompressionServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         String[] methods = { "makeSortedList", "makeTree", "makeEncodings", "encode", "decode" },
                 options = { "Test new file", "Test new method on the same file", "Quit" };
         int repeatChoice = 0;
@@ -144,7 +154,7 @@ public class Driver {
         String[] encodings = studentSolution.getEncodings();
         boolean first = true;
         // Print out all their encodings (which are not null)
-        for (int i = 0; i < 128; i++)
+        for (int i = 0; i < encodings.length; i++)
             if (encodings[i] != null) {
                 if (!first)
                     System.out.print(", ");
@@ -0,0 +1,50 @@
+package huffman;
+
+import java.io.IOException;
+
+/**
+ * A way of coding a block of bytes given how often each byte occurs in it,
+ * as counted by makeSortedList or a block coder. Each coder writes whatever
+ * table it needs ahead of its codes, so a block is decoded knowing only which
+ * coder wrote it, and EntropyFile can pick a different coder for every block.
+ *
+ * Coders hold no state between blocks and can be shared between threads.
+ */
+public interface EntropyCoder {
+    /** Id of HuffmanEntropyCoder */
+    int HUFFMAN = 0;
+    /** Id of AnsEntropyCoder */
+    int ANS = 1;
+
+    /** Returns the number naming the coder in encoded data */
+    int id();
+
+    /** Returns a short name for the coder, for logs and benchmarks */
+    String name();
+
+    /**
+     * Returns about how many bits encode() would write for a block with the
+     * given counts, its table included
+     *
+     * @param counts Occurrences of each byte in the block
+     */
+    long estimateBits(long[] counts);
+
+    /**
+     * Writes the table and codes of raw[0] to raw[len - 1], ending on a byte
+     * boundary
+     *
+     * @param counts Occurrences of each byte in the block, len in total
+     * @param out    The writer, on a byte boundary
+     */
+    void encode(byte[] raw, int len, long[] counts, BitWriter out) throws IOException;
+
+    /**
+     * Reads a block written by encode() into raw[0] to raw[len - 1], leaving
+     * the reader on the byte boundary after it
+     *
+     * @param in  The reader, at the start of the block's table
+     * @param len Number of bytes in the block
+     */
+    void decode(BitReader in, byte[] raw, int len) throws IOException;
+}
@@ -0,0 +1,147 @@
+package huffman;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * This class reads and writes the entropy block format, where every block is
+ * coded by whichever EntropyCoder promises the smaller result. Huffman is the
+ * default, since it decodes with one lookup per byte and no state to carry.
+ * tANS is chosen for a block only if it promises to save at least a given
+ * fraction more, which it does on skewed blocks where whole-bit codes waste
+ * the most. A block which no coder would shrink is stored as it is.
+ *
+ * The encoded file is an ENTROPY header and the block size, then the blocks,
+ * and finally an empty block. A block is its length, the id of its coder as a
+ * byte, or STORED_BLOCK, then what the coder wrote, ending on a byte boundary.
+ */
+public class EntropyFile {
+    /** Block size used unless another is given */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+    /** Fraction of Huffman's size tANS must save, unless another is given */
+    public static final double DEFAULT_MIN_GAIN = 0.01;
+    /** Coder id of a block stored uncoded */
+    public static final int STORED_BLOCK = 0xFF;
+    private static final int ALPHABET = 256;
+    private static final EntropyCoder[] CODERS = { new HuffmanEntropyCoder(), new AnsEntropyCoder() };
+
+    private final int blockSize;
+    private final double minGain;
+    private final long[] blocksByCoder = new long[CODERS.length + 1];
+
+    public EntropyFile() {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_MIN_GAIN);
+    }
+
+    /**
+     * @param blockSize Number of input bytes per block
+     * @param minGain   Fraction of Huffman's size another coder must save to
+     *                  be chosen: 0 always takes the smallest, 1 or more
+     *                  always keeps Huffman
+     */
+    public EntropyFile(int blockSize, double minGain) {
+        if (blockSize <= 0 || blockSize > HuffmanInputStream.MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be from 1 to " + HuffmanInputStream.MAX_BLOCK_SIZE);
+        if (!(minGain >= 0))
+            throw new IllegalArgumentException("Minimum gain must not be negative");
+        this.blockSize = blockSize;
+        this.minGain = minGain;
+    }
+
+    /**
+     * Returns the coder with the given id
+     *
+     * @throws IOException If no coder has the id
+     */
+    public static EntropyCoder coder(int id) throws IOException {
+        if (id < 0 || id >= CODERS.length)
+            throw new IOException("Unknown entropy coder " + id);
+        return CODERS[id];
+    }
+
+    /**
+     * Encodes inputFile into encodedFile
+     *
+     * @param inputFile   The file to encode, read as raw bytes
+     * @param encodedFile The file to write, which doesn't need to exist yet
+     */
+    public void encode(String inputFile, String encodedFile) throws IOException {
+        byte[] raw = new byte[blockSize];
+        long[] counts = new long[ALPHABET];
+        SymbolKernels kernels = SymbolKernels.get();
+        try (SymbolReader in = new SymbolReader(inputFile, false);
+                BitWriter out = new BitWriter(encodedFile)) {
+            FileFormat.writeHeader(out, FileFormat.ENTROPY);
+            out.writeVarLong(blockSize);
+            for (int len = in.readBlock(raw); len > 0; len = in.readBlock(raw)) {
+                Arrays.fill(counts, 0);
+                kernels.count(raw, 0, len, counts);
+                EntropyCoder coder = choose(counts, len);
+                out.writeVarLong(len);
+                if (coder == null) {
+                    out.writeByte(STORED_BLOCK);
+                    out.writeBytes(raw, 0, len);
+                    blocksByCoder[CODERS.length]++;
+                } else {
+                    out.writeByte(coder.id());
+                    coder.encode(raw, len, counts, out);
+                    blocksByCoder[coder.id()]++;
+                }
+            }
+            out.writeVarLong(0);
+        }
+    }
+
+    /**
+     * Decodes a file written by encode() into decodedFile
+     *
+     * @param encodedFile The file written by encode()
+     * @param decodedFile The file to write, which doesn't need to exist yet
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        try (BitReader in = new BitReader(encodedFile);
+                SymbolWriter out = new SymbolWriter(decodedFile)) {
+            if (FileFormat.readHeader(in) != FileFormat.ENTROPY)
+                throw new IOException(encodedFile + " is not an entropy block file");
+            long blockSize = in.readVarLong();
+            if (blockSize <= 0 || blockSize > HuffmanInputStream.MAX_BLOCK_SIZE)
+                throw new IOException("Unsupported block size " + blockSize);
+            byte[] raw = new byte[(int) blockSize];
+            for (long len = in.readVarLong(); len > 0; len = in.readVarLong()) {
+                if (len > blockSize)
+                    throw new IOException("Block of " + len + " bytes is larger than the block size");
+                int id = in.readByte();
+                if (id == STORED_BLOCK)
+                    in.readBytes(raw, 0, (int) len);
+                else
+                    coder(id).decode(in, raw, (int) len);
+                out.write(raw, 0, (int) len);
+            }
+        }
+    }
+
+    /**
+     * Returns the coder for a block with the given counts, or null if it
+     * should be stored
+     */
+    EntropyCoder choose(long[] counts, int len) {
+        EntropyCoder best = CODERS[0];
+        long huffmanBits = best.estimateBits(counts), bestBits = huffmanBits;
+        for (int i = 1; i < CODERS.length; i++) {
+            long bits = CODERS[i].estimateBits(counts);
+            if (bits < bestBits && bits < huffmanBits * (1 - minGain)) {
+                best = CODERS[i];
+                bestBits = bits;
+            }
+        }
+        return bestBits < 8L * len ? best : null;
+    }
+
+    /**
+     * Returns how many blocks each coder has written, indexed by coder id,
+     * with stored blocks last
+     */
+    public long[] getBlocksByCoder() {
+        return blocksByCoder.clone();
+    }
+}
@@ -0,0 +1,95 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * This class tells the encoded file formats apart. Files written by
+ * writeBitString begin with the padding marker, so their first byte always
+ * holds a 1. Every other format begins with a 0 byte, two magic bytes and a
+ * byte naming the format, which can never be mistaken for such a file.
+ */
+public class FileFormat {
+    /** Raw bit string with no header, decodable only with the original tree */
+    public static final int LEGACY = 0;
+    /** Canonical code lengths followed by the padded bit string */
+    public static final int CANONICAL = 1;
+    /** Independently coded chunks of bytes followed by an index of their bit lengths */
+    public static final int CHUNKED = 2;
+    /** Self-contained blocks followed by an index of where each one starts */
+    public static final int BLOCKS = 3;
+    /** Self-contained blocks ending with an empty one, with no index */
+    public static final int STREAM = 4;
+    /** Like CANONICAL, but the symbols are raw bytes rather than characters */
+    public static final int CANONICAL_BYTES = 5;
+    /** Adaptive Huffman codes with no table, ending with an END symbol */
+    public static final int ADAPTIVE = 6;
+    /** A code table saved by TrainedTable, on its own */
+    public static final int TABLE = 7;
+    /** Data coded with a saved TrainedTable, named by its id */
+    public static final int TRAINED = 8;
+    /** Blocks whose symbols are spread over four interleaved bit streams */
+    public static final int INTERLEAVED = 9;
+    /** Blocks coded with a table per preceding byte, see ContextHuffman */
+    public static final int CONTEXT = 10;
+    /** Codes which can be extended later, see AppendableFile */
+    public static final int APPEND = 11;
+    /** The input bytes uncoded, for data coding would not shrink */
+    public static final int STORED = 12;
+    /** Blocks each coded by the EntropyCoder which suits it best */
+    public static final int ENTROPY = 13;
+
+    private static final int MAGIC_1 = 'H', MAGIC_2 = 'F';
+
+    private FileFormat() {
+    }
+
+    /**
+     * Writes the header naming the given format
+     *
+     * @param out    The writer, at the start of the file
+     * @param format One of the format constants
+     */
+    public static void writeHeader(BitWriter out, int format) throws IOException {
+        out.writeByte(0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(MAGIC_2);
+        out.writeByte(format);
+    }
+
+    /**
+     * Reads the header written by writeHeader, or returns LEGACY without
+     * consuming anything if the file has none
+     *
+     * @param in The reader, at the start of the file
+     * @return The format of the file
+     */
+    public static int readHeader(BitReader in) throws IOException {
+        if (in.peekBits(8) != 0)
+            return LEGACY;
+        in.skipBits(8);
+        if (in.readByte() != MAGIC_1 || in.readByte() != MAGIC_2)
+            throw new IOException("Not a Huffman encoded file");
+        return in.readByte();
+    }
+
+    /**
+     * Returns the format of the given encoded file
+     *
+     * @param fileName The encoded file
+     */
+    public static int of(String fileName) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4);
+            while (head.hasRemaining() && ch.read(head) >= 0)
+                ;
+            if (head.position() == 0 || head.get(0) != 0)
+                return LEGACY;
+            if (head.position() < 4 || head.get(1) != MAGIC_1 || head.get(2) != MAGIC_2)
+                throw new IOException("Not a Huffman encoded file");
+            return head.get(3) & 0xFF;
+        }
+    }
+}
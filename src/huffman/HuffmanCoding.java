@@ -1,8 +1,8 @@
 package huffman;
 
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
  * This class contains methods which, when used together, perform the
@@ -16,6 +16,17 @@ public class HuffmanCoding {
     private ArrayList<CharFreq> sortedCharFreqList;
     private TreeNode huffmanRoot;
     private String[] encodings;
+    private long[] charCounts;
+    private CodeTable codeTable;
+    private boolean memoryMapped;
+    private boolean pipelined;
+    private boolean canonical;
+    private boolean byteMode;
+    private int maxCodeLength;
+    private final HuffmanTreeBuilder treeBuilder = new HuffmanTreeBuilder();
+    private CodeTable treeCodes;
+    private boolean limitedTree;
+    private CompressionMetrics metrics;
 
     /**
      * Constructor used by the driver, sets filename
@@ -28,123 +39,233 @@ public class HuffmanCoding {
     }
 
     /**
-     * Reads from filename character by character, and sets sortedCharFreqList
+     * Chooses whether the input file is memory-mapped instead of being read
+     * through a reusable buffer
+     *
+     * @param mapped True to memory-map the input file
+     */
+    public void setMemoryMapped(boolean mapped) {
+        memoryMapped = mapped;
+    }
+
+    /**
+     * Chooses whether files are read and written on threads of their own,
+     * through ReadAheadChannel and WriteBehindChannel, so that reading,
+     * coding and writing overlap instead of taking turns. A memory-mapped
+     * input is still mapped, since it has no reads to overlap.
+     *
+     * @param pipelined True to overlap I/O with coding
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Chooses whether makeEncodings assigns canonical codes, in which case
+     * encode writes the code lengths ahead of the bit string so the file can
+     * be decoded by decodeFile without the tree
+     *
+     * @param canonical True to use canonical codes and a self-describing file
+     */
+    public void setCanonical(boolean canonical) {
+        this.canonical = canonical;
+    }
+
+    /**
+     * Chooses whether the file is treated as raw bytes over an alphabet of 256
+     * symbols instead of UTF-8 text, which skips charset decoding altogether
+     * and works for any file, including binary ones
+     *
+     * @param bytes True to code the raw bytes of the file
+     */
+    public void setByteMode(boolean bytes) {
+        byteMode = bytes;
+    }
+
+    /**
+     * Limits how long a code makeTree may give any character. If the huffman
+     * tree is deeper than the limit, it is replaced by the tree of the optimal
+     * code lengths within the limit, found by package-merge.
+     *
+     * @param maxLength The longest code allowed, or 0 for no limit
+     */
+    public void setMaxCodeLength(int maxLength) {
+        if (maxLength < 0 || maxLength > CodeTable.MAX_CODE_LENGTH)
+            throw new IllegalArgumentException("Code length limit must be from 0 to " + CodeTable.MAX_CODE_LENGTH);
+        maxCodeLength = maxLength;
+    }
+
+    /**
+     * Reads from filename character by character, or byte by byte in byte
+     * mode, and sets sortedCharFreqList
      * to a new ArrayList of CharFreq objects with frequency > 0, sorted by
-     * frequency
+     * frequency. The file is read once, counting every character into a
+     * primitive histogram which is kept as charCounts.
      */
     public void makeSortedList() {
-        Scanner sc = new Scanner(System.in);
-        try {
-            sc = new Scanner(new File(fileName), "UTF-8");
-            sc.useLocale(Locale.US);
+        // Bytes need 256 counters, text starts with room for ASCII and only grows
+        // to the full char range if needed
+        long[] counts = new long[byteMode ? 256 : 128];
+        long numChars = 0;
+        StageEvent stage = getMetrics().beginStage();
+        try (SymbolReader in = openInput()) {
+            if (byteMode) {
+                byte[] buf = new byte[SymbolReader.BUFFER_SIZE];
+                SymbolKernels kernels = SymbolKernels.get();
+                for (int n = in.read(buf, 0, buf.length); n > 0; n = in.read(buf, 0, buf.length)) {
+                    kernels.count(buf, 0, n, counts);
+                    numChars += n;
+                }
+            } else
+                for (int c = in.readChar(); c >= 0; c = in.readChar()) {
+                    if (c >= counts.length)
+                        counts = Arrays.copyOf(counts, Character.MAX_VALUE + 1);
+                    counts[c]++;
+                    numChars++;
+                }
+            metrics.noteBuffers(in.bufferSize() + (byteMode ? SymbolReader.BUFFER_SIZE : 0) + pipelineBytes(1));
+            metrics.endStage(stage, Stage.COUNT, new File(fileName).length(), in.ioNanos());
         } catch (IOException e) {
             e.printStackTrace();
         }
-        ArrayList<Character> c = new ArrayList<Character>();
-        sortedCharFreqList = new ArrayList<CharFreq>();
-        int numChars = 0;
-        while (hasNextChar(sc)) {
-            Character c2 = nextChar(sc);
-            if (c.isEmpty() || !c.contains(c2))
-                c.add(c2);
-            numChars++;
-        }
-        for (int i = 0; i < c.size(); i++) {
-            try {
-                sc = new Scanner(new File(fileName), "UTF-8");
-                sc.useLocale(Locale.US);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            int numOcs = 0;
-            while (hasNextChar(sc)) {
-                Character c2 = nextChar(sc);
-                if (c.get(i).compareTo(c2) == 0)
-                    numOcs++;
-            }
-            double prob = (double) numOcs / numChars;
-            CharFreq cf = new CharFreq(c.get(i), prob);
-            sortedCharFreqList.add(cf);
-        }
-        Collections.sort(sortedCharFreqList);
-        if (sortedCharFreqList.size() == 1) {
+        charCounts = counts;
+        sortedCharFreqList = sortedCharFreqList(counts, numChars);
+        int distinct = 0;
+        for (long c : counts)
+            if (c > 0)
+                distinct++;
+        metrics.setDistinctSymbols(distinct);
+    }
+
+    /**
+     * Makes the list of CharFreq objects with frequency > 0 for the given
+     * histogram, sorted by frequency. A lone character is paired with a second
+     * one of probability 0 so that the tree still has two leaves.
+     *
+     * @param counts   Occurrences of each character, indexed by character
+     * @param numChars The sum of counts
+     */
+    static ArrayList<CharFreq> sortedCharFreqList(long[] counts, long numChars) {
+        ArrayList<CharFreq> list = new ArrayList<CharFreq>();
+        for (int i = 0; i < counts.length; i++)
+            if (counts[i] > 0)
+                list.add(new CharFreq((char) i, (double) counts[i] / numChars));
+        Collections.sort(list);
+        if (list.size() == 1) {
             ArrayList<CharFreq> temp = new ArrayList<CharFreq>();
             for (int i = 1; i <= 2; i++)
-                temp.add(sortedCharFreqList.get(0));
+                temp.add(list.get(0));
             temp.set(0, new CharFreq('b', 0.0));
-            sortedCharFreqList = temp;
+            list = temp;
         }
+        return list;
     }
 
     /**
-     * Uses sortedCharFreqList to build a huffman coding tree, and stores its root
-     * in huffmanRoot
+     * Uses charCounts, the exact counts behind sortedCharFreqList, to build a
+     * huffman coding tree in the flat arrays of treeBuilder and keeps the codes
+     * of its leaves in treeCodes. With a code length limit, a tree which is too
+     * deep is replaced by length-limited canonical codes. huffmanRoot is only
+     * made from these when getHuffmanRoot asks for it.
      */
     public void makeTree() {
-        Queue<TreeNode> source = new Queue<TreeNode>(), target = new Queue<TreeNode>();
-        for (CharFreq c : sortedCharFreqList) {
-            TreeNode t = new TreeNode();
-            t.setData(c);
-            source.enqueue(t);
-        }
-        while (!source.isEmpty() || target.size() != 1) {
-            Queue<TreeNode> queue = new Queue<TreeNode>();
-            for (int i = 1; i <= 2; i++) {
-                double p = source.isEmpty() ? 2 : source.peek().getData().getProbOcc(), q = target.isEmpty() ? 2 : target.peek().getData().getProbOcc();
-                queue.enqueue(Double.compare(p, q) <= 0 ? source.dequeue() : target.dequeue());
-            }
-            TreeNode l = queue.dequeue(), r = queue.dequeue();
-            double s = l.getData().getProbOcc() + r.getData().getProbOcc();
-            CharFreq c = new CharFreq(null, s);
-            target.enqueue(new TreeNode(c, l, r));
+        StageEvent stage = getMetrics().beginStage();
+        treeBuilder.build(charCounts);
+        huffmanRoot = null;
+        if (maxCodeLength > 0 && treeBuilder.maxLength() > maxCodeLength) {
+            treeCodes = CodeTable.canonical(PackageMerge.lengths(charCounts, maxCodeLength));
+            limitedTree = true;
+        } else {
+            // The tables of the last unlimited tree are only ever read here, so reuse them
+            treeCodes = treeBuilder.codeTable(charCounts.length, limitedTree ? null : treeCodes);
+            limitedTree = false;
         }
-        huffmanRoot = target.dequeue();
+        metrics.setMaxCodeLength(treeCodes.maxLength());
+        metrics.endStage(stage, Stage.TREE, 0, 0);
     }
 
     /**
-     * Uses huffmanRoot to create a string array of size 128, where each
+     * Uses the codes of the tree to create a string array of size 128, or 256
+     * in byte mode, where each
      * index in the array contains that ASCII character's bitstring encoding.
      * Characters not
      * present in the huffman coding tree should have their spots in the array left
      * null.
-     * Set encodings to this array.
+     * Set encodings to this array, and codeTable to the same codes packed into
+     * primitive tables. With canonical codes only the code lengths are taken
+     * from the tree, and encodings is rewritten to match.
      */
     public void makeEncodings() {
-        encodings = new String[128];
-        for (String s : encodings)
-            s = null;
-        search(huffmanRoot, "");
-    }
-
-    private void search(TreeNode root, String bit) {
-        TreeNode ptr = root;
-        if (ptr.getLeft() == null) {
-            encodings[ptr.getData().getCharacter()] = bit;
-            return;
-        }
-        search(ptr.getLeft(), bit + "0");
-        search(ptr.getRight(), bit + "1");
+        StageEvent stage = getMetrics().beginStage();
+        int size = byteMode ? 256 : 128;
+        int[] lengths = treeCodes.getLengths();
+        if (lengths.length > size)
+            for (int i = size; i < lengths.length; i++)
+                if (lengths[i] != 0)
+                    throw new ArrayIndexOutOfBoundsException("Character " + i + " does not fit in encodings of size " + size);
+        codeTable = new CodeTable(Arrays.copyOf(treeCodes.getCodes(), size), Arrays.copyOf(lengths, size));
+        if (canonical)
+            codeTable = CodeTable.canonical(codeTable.getLengths());
+        encodings = new String[size];
+        for (int i = 0; i < size; i++)
+            encodings[i] = codeTable.toBitString(i);
+        metrics.endStage(stage, Stage.ENCODINGS, 0, 0);
     }
 
     /**
-     * Using encodings and filename, this method makes use of the writeBitString
-     * method
-     * to write the final encoding of 1's and 0's to the encoded file.
+     * Using codeTable and filename, this method writes the final encoding of
+     * 1's and 0's to the encoded file in the same format as writeBitString,
+     * packing the bits as it goes instead of building the whole bit string.
+     * The padding is known up front since charCounts gives the exact length.
+     * With canonical codes, the code lengths are written first, and if
+     * CompressionEstimate expects the codes to be no smaller than the file,
+     * the file is stored uncoded by StoredFile instead.
      * 
      * @param encodedFile The file name into which the text file is to be encoded
      */
     public void encode(String encodedFile) {
-        Scanner sc = new Scanner(System.in);
-        try {
-            sc = new Scanner(new File(fileName), "UTF-8");
-            sc.useLocale(Locale.US);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        StringBuilder sb = new StringBuilder("");
-        while (hasNextChar(sc))
-            sb.append(encodings[nextChar(sc)]);
-        writeBitString(encodedFile, sb.toString());
+        long[] codes = codeTable.getCodes();
+        int[] lengths = codeTable.getLengths();
+        StageEvent stage = getMetrics().beginStage();
+        long read = new File(fileName).length(), written = 0, ioNanos = 0;
+        // A self-describing file can hold the input as it is when coding would not shrink it
+        if (canonical && !CompressionEstimate.of(codeTable, charCounts, read).isWorthCoding())
+            try {
+                StoredFile.store(fileName, encodedFile);
+                written = new File(encodedFile).length();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        else
+            try (SymbolReader in = openInput();
+                    BitWriter out = pipelined ? new BitWriter(WriteBehindChannel.open(encodedFile))
+                            : new BitWriter(encodedFile)) {
+                if (canonical) {
+                    FileFormat.writeHeader(out, byteMode ? FileFormat.CANONICAL_BYTES : FileFormat.CANONICAL);
+                    codeTable.write(out);
+                }
+                out.writePadMarker(codeTable.encodedBits(charCounts));
+                if (byteMode) {
+                    byte[] buf = new byte[SymbolReader.BUFFER_SIZE];
+                    SymbolKernels kernels = SymbolKernels.get();
+                    for (int n = in.read(buf, 0, buf.length); n > 0; n = in.read(buf, 0, buf.length))
+                        kernels.pack(buf, 0, n, codes, lengths, out);
+                } else
+                    for (int c = in.readChar(); c >= 0; c = in.readChar())
+                        out.writeBits(codes[c], lengths[c]);
+                metrics.noteBuffers(in.bufferSize() + (byteMode ? SymbolReader.BUFFER_SIZE : 0)
+                        + BitWriter.BUFFER_SIZE + pipelineBytes(2));
+                // Flush here so the last write counts towards the I/O time
+                out.alignToByte();
+                out.flush();
+                written = out.bitsWritten() / 8;
+                ioNanos = in.ioNanos() + out.ioNanos();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        metrics.endStage(stage, Stage.ENCODE, read + written, ioNanos);
+        metrics.setSizes(read, written);
+        metrics.finish(true);
     }
 
     /**
@@ -193,37 +314,159 @@ public class HuffmanCoding {
     }
 
     /**
-     * Using a given encoded file name, this method makes use of the readBitString
-     * method
-     * to convert the file into a bit string, then decodes the bit string using the
-     * tree, and writes it to a decoded file.
+     * Using a given encoded file name, this method reads the encoded bytes
+     * directly and decodes them one symbol per table lookup, using a
+     * DecodeTable built from the codes in the file header if it has one, or
+     * from the codes of the tree otherwise, and writes the result to a decoded
+     * file.
      * 
      * @param encodedFile The file which has already been encoded by encode()
      * @param decodedFile The name of the new file we want to decode into
      */
     public void decode(String encodedFile, String decodedFile) {
-        PrintWriter out = new PrintWriter(System.out);
+        if (codeTable == null)
+            makeEncodings();
         try {
-            out = new PrintWriter(new FileOutputStream(new File(decodedFile)), true);
+            decode(encodedFile, decodedFile, codeTable, byteMode, pipelined, getMetrics());
         } catch (IOException e) {
-            try {
-                File f = new File(decodedFile);
-                f.createNewFile();
-                out = new PrintWriter(new FileOutputStream(f), true);
-            } catch (IOException e2) {
-                e2.printStackTrace();
-            }
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Decodes a file written by encode() with canonical codes, by
+     * ParallelHuffman, by BlockFile, by InterleavedHuffman, by ContextHuffman,
+     * by AppendableFile, by StoredFile or through a HuffmanOutputStream or an
+     * AdaptiveHuffmanOutputStream, or with a TrainedTable saved in the
+     * directory named by the huffman.tables system property, rebuilding the
+     * decoding tables from the file alone
+     * 
+     * @param encodedFile The file which has already been encoded by encode()
+     * @param decodedFile The name of the new file we want to decode into
+     */
+    public static void decodeFile(String encodedFile, String decodedFile) {
+        try {
+            decodeFileChecked(encodedFile, decodedFile);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        String s = readBitString(encodedFile);
-        while (s.length() != 0) {
-            TreeNode ptr = huffmanRoot;
-            while (ptr.getData().getCharacter() == null) {
-                ptr = s.charAt(0) == '0' ? ptr.getLeft() : ptr.getRight();
-                s = s.substring(1);
+    }
+
+    /**
+     * Decodes any file decodeFile can, but throws the errors decodeFile only
+     * prints, so callers can tell a failed decode from a finished one
+     *
+     * @param encodedFile The encoded file
+     * @param decodedFile The name of the new file we want to decode into
+     */
+    public static void decodeFileChecked(String encodedFile, String decodedFile) throws IOException {
+        switch (FileFormat.of(encodedFile)) {
+            case FileFormat.CHUNKED:
+                new ParallelHuffman().decode(encodedFile, decodedFile);
+                return;
+            case FileFormat.BLOCKS:
+                BlockFile.decode(encodedFile, decodedFile);
+                return;
+            case FileFormat.INTERLEAVED:
+                InterleavedHuffman.decode(encodedFile, decodedFile);
+                return;
+            case FileFormat.CONTEXT:
+                ContextHuffman.decode(encodedFile, decodedFile);
+                return;
+            case FileFormat.APPEND:
+                AppendableFile.decode(encodedFile, decodedFile);
+                return;
+            case FileFormat.STORED:
+                StoredFile.decode(encodedFile, decodedFile);
+                return;
+            case FileFormat.ENTROPY:
+                EntropyFile.decode(encodedFile, decodedFile);
+                return;
+            case FileFormat.STREAM:
+                try (InputStream in = new HuffmanInputStream(new FileInputStream(encodedFile));
+                        OutputStream out = new FileOutputStream(decodedFile)) {
+                    in.transferTo(out);
+                }
+                return;
+            case FileFormat.TRAINED:
+                Files.write(Paths.get(decodedFile),
+                        TableRegistry.getDefault().decode(Files.readAllBytes(Paths.get(encodedFile))));
+                return;
+            case FileFormat.ADAPTIVE:
+                try (InputStream in = new AdaptiveHuffmanInputStream(new FileInputStream(encodedFile));
+                        OutputStream out = new FileOutputStream(decodedFile)) {
+                    in.transferTo(out);
+                }
+                return;
+            default:
+                decode(encodedFile, decodedFile, null, false, false, new CompressionMetrics(encodedFile));
+        }
+    }
+
+    private static void decode(String encodedFile, String decodedFile, CodeTable treeCodes, boolean bytes,
+            boolean pipelined, CompressionMetrics metrics) throws IOException {
+        StageEvent stage = metrics.beginStage();
+        long read = new File(encodedFile).length(), written = 0, ioNanos = 0;
+        try (BitReader in = pipelined ? new BitReader(ReadAheadChannel.open(encodedFile)) : new BitReader(encodedFile);
+                SymbolWriter out = pipelined ? new SymbolWriter(WriteBehindChannel.open(decodedFile))
+                        : new SymbolWriter(decodedFile)) {
+            CodeTable codes;
+            int format = FileFormat.readHeader(in);
+            if (format == FileFormat.CANONICAL || format == FileFormat.CANONICAL_BYTES) {
+                bytes = format == FileFormat.CANONICAL_BYTES;
+                codes = CodeTable.read(in, bytes ? 256 : 128);
+            } else if (format == FileFormat.LEGACY && treeCodes != null)
+                codes = treeCodes;
+            else if (format == FileFormat.LEGACY)
+                throw new IOException(encodedFile + " has no code table, it can only be decoded with its tree");
+            else if (format == FileFormat.STORED)
+                codes = null;
+            else
+                throw new IOException("Unsupported encoded file format " + format);
+            long end = new File(encodedFile).length() * 8;
+            if (codes == null) {
+                // Stored by encode() as it was, since coding would not have shrunk it
+                byte[] buf = new byte[SymbolWriter.BUFFER_SIZE];
+                while (in.bitsRead() < end) {
+                    int n = (int) Math.min(buf.length, (end - in.bitsRead()) / 8);
+                    in.readBytes(buf, 0, n);
+                    out.write(buf, 0, n);
+                }
+            } else {
+                DecodeTable table = new DecodeTable(codes);
+                in.readPadMarker();
+                if (bytes)
+                    while (in.bitsRead() < end)
+                        out.write(table.decode(in));
+                else
+                    while (in.bitsRead() < end)
+                        out.writeChar(table.decode(in));
             }
-            out.print(ptr.getData().getCharacter());
+            metrics.noteBuffers(BitReader.BUFFER_SIZE + SymbolWriter.BUFFER_SIZE
+                    + (pipelined ? 2L * ReadAheadChannel.DEFAULT_BUFFERS * ReadAheadChannel.DEFAULT_BUFFER_SIZE : 0));
+            // Flush here so the last write counts towards the I/O time
+            out.flush();
+            ioNanos = in.ioNanos() + out.ioNanos();
         }
-        out.flush();
+        written = new File(decodedFile).length();
+        metrics.endStage(stage, Stage.DECODE, read + written, ioNanos);
+        metrics.setSizes(written, read);
+        metrics.finish(false);
+    }
+
+    private SymbolReader openInput() throws IOException {
+        if (pipelined && !memoryMapped)
+            return new SymbolReader(ReadAheadChannel.open(fileName));
+        return new SymbolReader(fileName, memoryMapped);
+    }
+
+    // Bytes of buffers the read ahead and write behind threads of the given
+    // number of files hold, the input counting only if it is not mapped
+    private long pipelineBytes(int files) {
+        if (!pipelined)
+            return 0;
+        return (long) (memoryMapped ? files - 1 : files) * ReadAheadChannel.DEFAULT_BUFFERS
+                * ReadAheadChannel.DEFAULT_BUFFER_SIZE;
     }
 
     /**
@@ -235,7 +478,7 @@ public class HuffmanCoding {
      * @return String of 1's and 0's representing the bits in the file
      */
     public static String readBitString(String filename) {
-        String bitString = "";
+        StringBuilder bitString = new StringBuilder();
         try {
             FileInputStream in = new FileInputStream(filename);
             File file = new File(filename);
@@ -245,7 +488,7 @@ public class HuffmanCoding {
             // For each byte read, convert it to a binary string of length 8 and add it
             // to the bit string
             for (byte b : bytes)
-                bitString = bitString + String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0');
+                bitString.append(String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0'));
 
             // Detect the first 1 signifying the end of padding, then remove the first few
             // characters, including the 1
@@ -273,6 +516,8 @@ public class HuffmanCoding {
     }
 
     public TreeNode getHuffmanRoot() {
+        if (huffmanRoot == null && treeCodes != null)
+            huffmanRoot = limitedTree ? treeCodes.toTree(charCounts) : treeBuilder.toTree();
         return huffmanRoot;
     }
 
@@ -280,22 +525,29 @@ public class HuffmanCoding {
         return encodings;
     }
 
-    private boolean hasNextChar(Scanner sc) {
-        sc.useDelimiter(Pattern.compile(""));
-        boolean res = sc.hasNext();
-        sc.useDelimiter(Pattern.compile("\\p{javaWhitespace}+"));
-        return res;
+    /*
+     * Other getters, outside the driver's set above
+     */
+
+    /**
+     * Timings and figures of the stages run so far on this file, which are
+     * also added to HuffmanMetrics and recorded as Flight Recorder events
+     */
+    public CompressionMetrics getMetrics() {
+        if (metrics == null)
+            metrics = new CompressionMetrics(fileName);
+        return metrics;
     }
 
-    private char nextChar(Scanner sc) {
-        try {
-            sc.useDelimiter(Pattern.compile(""));
-            String ch = sc.next();
-            assert ch.length() == 1 : "Error detected";
-            sc.useDelimiter(Pattern.compile("\\p{javaWhitespace}+"));
-            return ch.charAt(0);
-        } catch (NoSuchElementException e) {
-            throw new NoSuchElementException("no tokens available");
-        }
+    /**
+     * Exact number of occurrences of each character, indexed by character,
+     * as counted by makeSortedList
+     */
+    public long[] getCharCounts() {
+        return charCounts;
+    }
+
+    public CodeTable getCodeTable() {
+        return codeTable;
     }
 }
@@ -0,0 +1,81 @@
+package huffman;
+
+import java.io.IOException;
+
+/**
+ * The Huffman codes of the block formats as an EntropyCoder: the code table,
+ * the bit length of the codes, then the codes padded to a whole byte. Codes
+ * are at most DecodeTable.DEFAULT_LOOKUP_BITS long, so every symbol decodes
+ * with one table lookup. BlockFile codes its blocks the same way, through
+ * writeCodes and readCodes.
+ */
+public class HuffmanEntropyCoder implements EntropyCoder {
+    private static final int ALPHABET = 256;
+    private static final int MAX_LENGTH = DecodeTable.DEFAULT_LOOKUP_BITS;
+
+    public int id() {
+        return HUFFMAN;
+    }
+
+    public String name() {
+        return "huffman";
+    }
+
+    public long estimateBits(long[] counts) {
+        CodeTable table = CodeTable.fromCounts(counts, MAX_LENGTH);
+        long bits = table.encodedBits(counts);
+        return table.headerBits() + 8 * varLongSize(bits) + bits;
+    }
+
+    public void encode(byte[] raw, int len, long[] counts, BitWriter out) throws IOException {
+        writeCodes(out, raw, len, counts, CodeTable.fromCounts(counts, MAX_LENGTH));
+    }
+
+    public void decode(BitReader in, byte[] raw, int len) throws IOException {
+        CodeTable codes = CodeTable.read(in, ALPHABET);
+        if (codes.size() > ALPHABET || codes.maxLength() > MAX_LENGTH)
+            throw new IOException("Malformed code table header");
+        readCodes(in, codes, raw, len);
+    }
+
+    /**
+     * Writes the given table, the bit length of the codes and the codes of
+     * raw[0] to raw[len - 1], then pads to a byte boundary
+     *
+     * @param counts Occurrences of each byte in the block, len in total
+     * @param table  A table giving every byte of the block a code
+     */
+    static void writeCodes(BitWriter out, byte[] raw, int len, long[] counts, CodeTable table) throws IOException {
+        table.write(out);
+        out.writeVarLong(table.encodedBits(counts));
+        SymbolKernels.get().pack(raw, 0, len, table.getCodes(), table.getLengths(), out);
+        out.alignToByte();
+    }
+
+    /**
+     * Reads what writeCodes wrote after the table into raw[0] to raw[len - 1],
+     * leaving the reader on the byte boundary after it
+     *
+     * @param codes The table, already read
+     */
+    static void readCodes(BitReader in, CodeTable codes, byte[] raw, int len) throws IOException {
+        // Blocks often repeat the table of an earlier block, even in another file
+        DecodeTable table = TableCache.shared().decoder(codes);
+        long bits = in.readVarLong();
+        long end = in.bitsRead() + bits;
+        for (int i = 0; i < len; i++)
+            raw[i] = (byte) table.decode(in);
+        if (in.bitsRead() != end)
+            throw new IOException("Block codes do not match their recorded bit length");
+        in.alignToByte();
+    }
+
+    static int varLongSize(long v) {
+        int n = 1;
+        while ((v & ~0x7FL) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+}
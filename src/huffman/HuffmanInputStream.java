@@ -0,0 +1,90 @@
+package huffman;
+
+import java.io.*;
+import java.nio.channels.Channels;
+
+/**
+ * This class is an input stream which decodes data written by
+ * HuffmanOutputStream, one block at a time, so memory use is bounded by the
+ * block size of the stream. Like other decompressing streams it may read
+ * ahead of the end of the encoded data in the underlying stream.
+ */
+public class HuffmanInputStream extends FilterInputStream {
+    /** Largest block size accepted from a stream header */
+    public static final int MAX_BLOCK_SIZE = 1 << 26;
+
+    private final BitReader bits;
+    private final byte[] block;
+    private int pos, limit;
+    private boolean ended;
+
+    /**
+     * Creates the stream and reads the stream header from in
+     *
+     * @param in The stream holding the encoded data
+     */
+    public HuffmanInputStream(InputStream in) throws IOException {
+        super(in);
+        bits = new BitReader(Channels.newChannel(in));
+        if (FileFormat.readHeader(bits) != FileFormat.STREAM)
+            throw new IOException("Not a Huffman stream");
+        long blockSize = bits.readVarLong();
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE)
+            throw new IOException("Unsupported block size " + blockSize);
+        block = new byte[(int) blockSize];
+    }
+
+    public int read() throws IOException {
+        if (pos == limit && !nextBlock())
+            return -1;
+        return block[pos++] & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (pos == limit && !nextBlock())
+            return -1;
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (pos < limit || nextBlock())) {
+            int k = (int) Math.min(n - skipped, limit - pos);
+            pos += k;
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    public int available() {
+        return limit - pos;
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public void mark(int readlimit) {
+    }
+
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (ended)
+            return false;
+        pos = 0;
+        limit = BlockFile.readBlock(bits, block);
+        if (limit == 0)
+            ended = true;
+        return limit > 0;
+    }
+}
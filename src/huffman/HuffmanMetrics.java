@@ -0,0 +1,145 @@
+package huffman;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * This class adds up the metrics of every compression job in the JVM, from
+ * any thread, and exposes them over JMX. The single instance is registered
+ * with the platform MBean server the first time it is used, unless the
+ * system property huffman.jmx is set to false.
+ */
+public class HuffmanMetrics implements HuffmanMetricsMXBean {
+    /** Name the instance is registered under */
+    public static final String OBJECT_NAME = "huffman:type=HuffmanMetrics";
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final HuffmanMetrics INSTANCE = register(new HuffmanMetrics());
+
+    private final LongAdder encodes = new LongAdder(), decodes = new LongAdder();
+    private final LongAdder uncompressed = new LongAdder(), compressed = new LongAdder();
+    private final AtomicLong peakBuffers = new AtomicLong();
+    private final LongAdder[] stageCounts = adders(), stageNanos = adders(), stageBytes = adders();
+    private final LatencyHistogram[] latencies = new LatencyHistogram[STAGES.length];
+
+    private HuffmanMetrics() {
+        for (int i = 0; i < latencies.length; i++)
+            latencies[i] = new LatencyHistogram();
+    }
+
+    /** Returns the instance shared by every job */
+    public static HuffmanMetrics get() {
+        return INSTANCE;
+    }
+
+    /** Adds one finished stage */
+    void recordStage(Stage stage, long nanos, long bytes) {
+        int i = stage.ordinal();
+        stageCounts[i].increment();
+        stageNanos[i].add(nanos);
+        stageBytes[i].add(bytes);
+        latencies[i].record(nanos);
+    }
+
+    /** Adds one finished encode or decode */
+    void recordRun(CompressionMetrics run, boolean encoding) {
+        (encoding ? encodes : decodes).increment();
+        uncompressed.add(run.getInputBytes());
+        compressed.add(run.getOutputBytes());
+        peakBuffers.accumulateAndGet(run.getPeakBufferBytes(), Math::max);
+    }
+
+    /** Returns the latency histogram of a stage */
+    public LatencyHistogram latency(Stage stage) {
+        return latencies[stage.ordinal()];
+    }
+
+    public long getEncodeCount() {
+        return encodes.sum();
+    }
+
+    public long getDecodeCount() {
+        return decodes.sum();
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressed.sum();
+    }
+
+    public long getCompressedBytes() {
+        return compressed.sum();
+    }
+
+    public double getCompressionRatio() {
+        long in = uncompressed.sum();
+        return in == 0 ? 0 : (double) compressed.sum() / in;
+    }
+
+    public long getPeakBufferBytes() {
+        return peakBuffers.get();
+    }
+
+    public Map<String, Long> getStageCounts() {
+        return byStage(stageCounts);
+    }
+
+    public Map<String, Long> getStageTotalNanos() {
+        return byStage(stageNanos);
+    }
+
+    public Map<String, Long> getStageBytes() {
+        return byStage(stageBytes);
+    }
+
+    public Map<String, long[]> getStageLatencyHistograms() {
+        Map<String, long[]> map = new LinkedHashMap<String, long[]>();
+        for (Stage stage : STAGES)
+            map.put(stage.name(), latencies[stage.ordinal()].snapshot());
+        return map;
+    }
+
+    public long stageLatencyPercentile(String stage, double percentile) {
+        return latency(Stage.valueOf(stage)).percentile(percentile);
+    }
+
+    public void reset() {
+        for (LongAdder a : new LongAdder[] { encodes, decodes, uncompressed, compressed })
+            a.reset();
+        peakBuffers.set(0);
+        for (int i = 0; i < STAGES.length; i++) {
+            stageCounts[i].reset();
+            stageNanos[i].reset();
+            stageBytes[i].reset();
+            latencies[i].reset();
+        }
+    }
+
+    private static Map<String, Long> byStage(LongAdder[] adders) {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (Stage stage : STAGES)
+            map.put(stage.name(), adders[stage.ordinal()].sum());
+        return map;
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[STAGES.length];
+        for (int i = 0; i < adders.length; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private static HuffmanMetrics register(HuffmanMetrics metrics) {
+        if (!Boolean.parseBoolean(System.getProperty("huffman.jmx", "true")))
+            return metrics;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            // Metrics still add up without JMX, they just can't be seen remotely
+            System.getLogger(HuffmanMetrics.class.getName()).log(System.Logger.Level.WARNING,
+                    "Could not register " + OBJECT_NAME, e);
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,54 @@
+package huffman;
+
+import java.util.Map;
+
+/**
+ * Management interface of HuffmanMetrics, registered with the platform MBean
+ * server as huffman:type=HuffmanMetrics. Maps are keyed by Stage name.
+ */
+public interface HuffmanMetricsMXBean {
+    /** Number of finished encodes */
+    long getEncodeCount();
+
+    /** Number of finished decodes */
+    long getDecodeCount();
+
+    /** Total uncompressed bytes over every finished encode and decode */
+    long getUncompressedBytes();
+
+    /** Total compressed bytes over every finished encode and decode */
+    long getCompressedBytes();
+
+    /** Compressed bytes over uncompressed bytes for every job so far */
+    double getCompressionRatio();
+
+    /** Largest peak buffer usage of any job so far */
+    long getPeakBufferBytes();
+
+    /** Number of times each stage has run */
+    Map<String, Long> getStageCounts();
+
+    /** Total wall time of each stage in nanoseconds */
+    Map<String, Long> getStageTotalNanos();
+
+    /** Total bytes processed by each stage */
+    Map<String, Long> getStageBytes();
+
+    /**
+     * Latency histogram of each stage, where bucket i counts runs which took
+     * less than 2^i nanoseconds and at least half that
+     */
+    Map<String, long[]> getStageLatencyHistograms();
+
+    /**
+     * Returns an upper bound of a percentile of the latency of a stage
+     *
+     * @param stage      Name of the stage
+     * @param percentile From 0 to 100
+     * @return The bound in nanoseconds
+     */
+    long stageLatencyPercentile(String stage, double percentile);
+
+    /** Clears every counter and histogram */
+    void reset();
+}
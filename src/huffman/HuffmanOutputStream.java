@@ -0,0 +1,129 @@
+package huffman;
+
+import java.io.*;
+import java.nio.channels.Channels;
+
+/**
+ * This class is an output stream which Huffman codes everything written to it
+ * and writes the result to another stream. The data is collected into blocks
+ * of a fixed size, each coded with its own table as in BlockFile, so memory
+ * use is bounded by the block size however much is written. The output is
+ * read back with HuffmanInputStream.
+ */
+public class HuffmanOutputStream extends FilterOutputStream {
+    /** Block size used unless another is given */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    private final BitWriter bits;
+    private final byte[] block;
+    private final TableCache cache;
+    private int count;
+    private boolean finished;
+
+    public HuffmanOutputStream(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates the stream and writes the stream header to out
+     *
+     * @param out       The stream the encoded data is written to
+     * @param blockSize Number of bytes coded together as one block, at most
+     *                  HuffmanInputStream.MAX_BLOCK_SIZE
+     */
+    public HuffmanOutputStream(OutputStream out, int blockSize) throws IOException {
+        this(out, blockSize, null);
+    }
+
+    /**
+     * Creates the stream and writes the stream header to out
+     *
+     * @param out       The stream the encoded data is written to
+     * @param blockSize Number of bytes coded together as one block, at most
+     *                  HuffmanInputStream.MAX_BLOCK_SIZE
+     * @param cache     Where to look for the code table of a block before
+     *                  building it, or null to build every one
+     */
+    public HuffmanOutputStream(OutputStream out, int blockSize, TableCache cache) throws IOException {
+        super(out);
+        // HuffmanInputStream reads no larger blocks
+        if (blockSize <= 0 || blockSize > HuffmanInputStream.MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be from 1 to " + HuffmanInputStream.MAX_BLOCK_SIZE);
+        bits = new BitWriter(Channels.newChannel(out));
+        block = new byte[blockSize];
+        this.cache = cache;
+        FileFormat.writeHeader(bits, FileFormat.STREAM);
+        bits.writeVarLong(blockSize);
+    }
+
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[count++] = (byte) b;
+        if (count == block.length)
+            writeBlock();
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        while (len > 0) {
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == block.length)
+                writeBlock();
+        }
+    }
+
+    /**
+     * Codes whatever has been written so far as a block, even if the block is
+     * not full, and flushes it to the underlying stream so the other end can
+     * decode it straight away
+     */
+    public void flush() throws IOException {
+        if (finished) {
+            out.flush();
+            return;
+        }
+        if (count > 0)
+            writeBlock();
+        bits.flush();
+        out.flush();
+    }
+
+    /**
+     * Writes the remaining data and the end of the stream without closing the
+     * underlying stream
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        if (count > 0)
+            writeBlock();
+        BlockFile.writeBlock(bits, block, 0, null);
+        bits.flush();
+        out.flush();
+        finished = true;
+    }
+
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        BlockFile.writeBlock(bits, block, count, cache);
+        count = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished)
+            throw new IOException("Stream has already been finished");
+    }
+}
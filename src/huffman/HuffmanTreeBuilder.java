@@ -0,0 +1,167 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * This class builds huffman coding trees from integer counts without creating
+ * any objects. Nodes live in parallel primitive arrays: the leaves sorted by
+ * weight come first, and every merged node is appended after them, so merged
+ * nodes are also in order of weight and the two lightest nodes are always at
+ * the front of one of the two runs. The arrays are kept between builds and
+ * only grow, so building table after table allocates nothing.
+ *
+ * Ties are broken like makeTree always has: leaves sort by count then symbol,
+ * and a leaf is merged before a merged node of the same weight.
+ */
+public class HuffmanTreeBuilder {
+    private int[] parent = new int[0], left = new int[0], right = new int[0], symbol = new int[0], depth = new int[0];
+    private long[] weight = new long[0], code = new long[0], keys = new long[0];
+    private int leaves, nodes;
+    private long total;
+
+    /**
+     * Builds the tree for the given counts, replacing the previous one. A lone
+     * symbol is paired with a leaf for 'b' of count 0, as makeSortedList does,
+     * so the tree always has two leaves.
+     *
+     * @param counts Occurrences of each symbol, indexed by symbol, each below 2^47
+     */
+    public void build(long[] counts) {
+        if (counts.length > 1 << 16)
+            throw new IllegalArgumentException("At most 65536 symbols are supported");
+        int n = 0;
+        total = 0;
+        for (long c : counts)
+            if (c > 0) {
+                n++;
+                total += c;
+            }
+        ensureCapacity(Math.max(2, n));
+
+        // Sort the leaves by count then symbol, packed into one long each
+        leaves = 0;
+        for (int s = 0; s < counts.length; s++)
+            if (counts[s] > 0) {
+                if (counts[s] >= 1L << 47)
+                    throw new IllegalArgumentException("Count of symbol " + s + " is too large");
+                keys[leaves++] = counts[s] << 16 | s;
+            }
+        Arrays.sort(keys, 0, leaves);
+        if (leaves == 1) {
+            keys[1] = keys[0];
+            keys[0] = 'b';
+            leaves = 2;
+        }
+        for (int i = 0; i < leaves; i++) {
+            weight[i] = keys[i] >>> 16;
+            symbol[i] = (int) (keys[i] & 0xFFFF);
+            left[i] = right[i] = -1;
+        }
+        nodes = leaves;
+        if (leaves == 0)
+            return;
+
+        // Merge the two lightest nodes until one is left
+        int s = 0, t = leaves;
+        while (nodes < 2 * leaves - 1) {
+            int l = (s < leaves && (t >= nodes || weight[s] <= weight[t])) ? s++ : t++;
+            int r = (s < leaves && (t >= nodes || weight[s] <= weight[t])) ? s++ : t++;
+            weight[nodes] = weight[l] + weight[r];
+            left[nodes] = l;
+            right[nodes] = r;
+            symbol[nodes] = -1;
+            parent[l] = parent[r] = nodes;
+            nodes++;
+        }
+        parent[nodes - 1] = -1;
+
+        // Every parent comes after its children, so one backwards pass gives
+        // the depth and code of every node
+        depth[nodes - 1] = 0;
+        code[nodes - 1] = 0;
+        for (int i = nodes - 2; i >= 0; i--) {
+            int p = parent[i];
+            depth[i] = depth[p] + 1;
+            code[i] = code[p] << 1 | (right[p] == i ? 1 : 0);
+        }
+    }
+
+    /** Returns the depth of the deepest leaf */
+    public int maxLength() {
+        int max = 0;
+        for (int i = 0; i < leaves; i++)
+            max = Math.max(max, depth[i]);
+        return max;
+    }
+
+    /**
+     * Writes the depth of every leaf into lengths, indexed by symbol, leaving
+     * the other entries alone
+     */
+    public void codeLengths(int[] lengths) {
+        for (int i = 0; i < leaves; i++)
+            lengths[symbol[i]] = depth[i];
+    }
+
+    /**
+     * Returns the codes of the tree as it was built, 0 for left and 1 for
+     * right, which are not canonical
+     *
+     * @param size The number of symbols the tables should cover
+     */
+    public CodeTable codeTable(int size) {
+        return codeTable(size, null);
+    }
+
+    /**
+     * Returns the codes of the tree like codeTable(size), writing them into the
+     * arrays of reuse instead of new ones when it has the right size
+     */
+    public CodeTable codeTable(int size, CodeTable reuse) {
+        if (maxLength() > CodeTable.MAX_CODE_LENGTH)
+            throw new IllegalStateException("Tree is deeper than " + CodeTable.MAX_CODE_LENGTH + " levels");
+        CodeTable table = reuse != null && reuse.size() == size ? reuse : new CodeTable(new long[size], new int[size]);
+        long[] codes = table.getCodes();
+        int[] lengths = table.getLengths();
+        Arrays.fill(codes, 0);
+        Arrays.fill(lengths, 0);
+        for (int i = 0; i < leaves; i++) {
+            codes[symbol[i]] = code[i];
+            lengths[symbol[i]] = depth[i];
+        }
+        return table;
+    }
+
+    /**
+     * Creates the TreeNode tree equivalent to the arrays, with the probability
+     * of each node as its data, or null if there were no symbols
+     */
+    public TreeNode toTree() {
+        if (nodes == 0)
+            return null;
+        TreeNode[] made = new TreeNode[nodes];
+        for (int i = 0; i < nodes; i++) {
+            double p = total == 0 ? 0 : (double) weight[i] / total;
+            if (symbol[i] >= 0)
+                made[i] = new TreeNode(new CharFreq((char) symbol[i], p), null, null);
+            else
+                made[i] = new TreeNode(new CharFreq(null, made[left[i]].getData().getProbOcc()
+                        + made[right[i]].getData().getProbOcc()), made[left[i]], made[right[i]]);
+        }
+        return made[nodes - 1];
+    }
+
+    private void ensureCapacity(int n) {
+        int size = 2 * n - 1;
+        if (parent.length >= size)
+            return;
+        parent = new int[size];
+        left = new int[size];
+        right = new int[size];
+        symbol = new int[size];
+        depth = new int[size];
+        weight = new long[size];
+        code = new long[size];
+        keys = new long[n];
+    }
+}
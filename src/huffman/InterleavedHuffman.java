@@ -0,0 +1,188 @@
+package huffman;
+
+import java.io.*;
+
+/**
+ * This class reads and writes the interleaved format, where the bytes of each
+ * block are dealt round-robin into four bit streams: byte i goes to stream
+ * i % 4. The streams are coded with one table but are otherwise independent,
+ * so the decoder keeps four bit positions and advances all of them in the
+ * same loop. The four lookups of an iteration don't depend on each other,
+ * which lets the processor overlap their loads and shifts instead of waiting
+ * for each code length before starting the next.
+ *
+ * The encoded file is an INTERLEAVED header and the block size, then the
+ * blocks, and finally an empty block. A block is its length, its code table,
+ * the byte length of each stream as a jump table, then the four streams, each
+ * padded to a whole byte. Codes are at most DecodeTable.DEFAULT_LOOKUP_BITS
+ * long so every symbol takes exactly one table lookup.
+ */
+public class InterleavedHuffman {
+    /** Block size used unless another is given */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+    /** Number of interleaved streams per block */
+    public static final int STREAMS = 4;
+    private static final int ALPHABET = 256;
+    private static final int MAX_LENGTH = DecodeTable.DEFAULT_LOOKUP_BITS;
+
+    private final int blockSize;
+
+    public InterleavedHuffman() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize Number of input bytes per block
+     */
+    public InterleavedHuffman(int blockSize) {
+        if (blockSize <= 0 || blockSize > HuffmanInputStream.MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be from 1 to " + HuffmanInputStream.MAX_BLOCK_SIZE);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Encodes inputFile into encodedFile
+     *
+     * @param inputFile   The file to encode, read as raw bytes
+     * @param encodedFile The file to write, which doesn't need to exist yet
+     */
+    public void encode(String inputFile, String encodedFile) throws IOException {
+        byte[] raw = new byte[blockSize];
+        byte[][] streams = new byte[STREAMS][streamCapacity(blockSize)];
+        int[] sizes = new int[STREAMS];
+        try (SymbolReader in = new SymbolReader(inputFile, false);
+                BitWriter out = new BitWriter(encodedFile)) {
+            FileFormat.writeHeader(out, FileFormat.INTERLEAVED);
+            out.writeVarLong(blockSize);
+            for (int len = in.readBlock(raw); len > 0; len = in.readBlock(raw)) {
+                long[] counts = new long[ALPHABET];
+                for (int i = 0; i < len; i++)
+                    counts[raw[i] & 0xFF]++;
+                CodeTable table = CodeTable.fromCounts(counts, MAX_LENGTH);
+                for (int k = 0; k < STREAMS; k++)
+                    sizes[k] = pack(raw, k, len, table, streams[k]);
+
+                out.writeVarLong(len);
+                table.write(out);
+                for (int k = 0; k < STREAMS; k++)
+                    out.writeVarLong(sizes[k]);
+                out.alignToByte();
+                for (int k = 0; k < STREAMS; k++)
+                    out.writeBytes(streams[k], 0, sizes[k]);
+            }
+            out.writeVarLong(0);
+        }
+    }
+
+    /**
+     * Decodes a file written by encode() into decodedFile
+     *
+     * @param encodedFile The file written by encode()
+     * @param decodedFile The file to write, which doesn't need to exist yet
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        try (BitReader in = new BitReader(encodedFile);
+                SymbolWriter out = new SymbolWriter(decodedFile)) {
+            if (FileFormat.readHeader(in) != FileFormat.INTERLEAVED)
+                throw new IOException(encodedFile + " is not an interleaved file");
+            long blockSize = in.readVarLong();
+            if (blockSize <= 0 || blockSize > HuffmanInputStream.MAX_BLOCK_SIZE)
+                throw new IOException("Unsupported block size " + blockSize);
+            byte[] raw = new byte[(int) blockSize];
+            byte[] coded = new byte[0];
+            int[] ends = new int[STREAMS];
+            for (long len = in.readVarLong(); len > 0; len = in.readVarLong()) {
+                if (len > blockSize)
+                    throw new IOException("Block of " + len + " bytes is larger than the block size");
+                DecodeTable table = TableCache.shared().decoder(CodeTable.read(in, ALPHABET));
+                int total = 0;
+                for (int k = 0; k < STREAMS; k++) {
+                    long size = in.readVarLong();
+                    if (size > streamCapacity((int) blockSize))
+                        throw new IOException("Malformed stream length " + size);
+                    total += (int) size;
+                    ends[k] = total;
+                }
+                in.alignToByte();
+                coded = in.readBytesPadded(coded, total);
+                decodeStreams(coded, ends, table, raw, (int) len);
+                out.write(raw, 0, (int) len);
+            }
+        }
+    }
+
+    /**
+     * Decodes the four streams of a block into raw
+     *
+     * @param coded The streams one after another, followed by 8 spare bytes
+     * @param ends  Where each stream ends in coded
+     * @param len   Number of bytes in the block
+     */
+    static void decodeStreams(byte[] coded, int[] ends, DecodeTable table, byte[] raw, int len) throws IOException {
+        int[] lookup = table.singleLookupTable();
+        if (lookup == null)
+            throw new IOException("Block codes are longer than " + MAX_LENGTH + " bits");
+        int shift = 64 - table.getLookupBits();
+        long p0 = 0, p1 = 8L * ends[0], p2 = 8L * ends[1], p3 = 8L * ends[2];
+        int i = 0;
+        try {
+            for (int end = len & ~3; i < end; i += 4) {
+                int e0 = lookup[(int) ((BitReader.longAt(coded, (int) (p0 >>> 3)) << (p0 & 7)) >>> shift)];
+                int e1 = lookup[(int) ((BitReader.longAt(coded, (int) (p1 >>> 3)) << (p1 & 7)) >>> shift)];
+                int e2 = lookup[(int) ((BitReader.longAt(coded, (int) (p2 >>> 3)) << (p2 & 7)) >>> shift)];
+                int e3 = lookup[(int) ((BitReader.longAt(coded, (int) (p3 >>> 3)) << (p3 & 7)) >>> shift)];
+                raw[i] = (byte) (e0 >>> 8);
+                raw[i + 1] = (byte) (e1 >>> 8);
+                raw[i + 2] = (byte) (e2 >>> 8);
+                raw[i + 3] = (byte) (e3 >>> 8);
+                // An invalid code has length 0 and stalls its stream, which the
+                // check of where the streams end catches
+                p0 += e0 & 0xFF;
+                p1 += e1 & 0xFF;
+                p2 += e2 & 0xFF;
+                p3 += e3 & 0xFF;
+            }
+            long[] p = { p0, p1, p2, p3 };
+            for (; i < len; i++) {
+                int k = i & 3;
+                int e = lookup[(int) ((BitReader.longAt(coded, (int) (p[k] >>> 3)) << (p[k] & 7)) >>> shift)];
+                raw[i] = (byte) (e >>> 8);
+                p[k] += e & 0xFF;
+            }
+            for (int k = 0; k < STREAMS; k++)
+                if ((p[k] + 7) >>> 3 != ends[k])
+                    throw new IOException("Stream " + k + " does not match its recorded length");
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Stream runs past the end of its block", e);
+        }
+    }
+
+    /**
+     * Codes every fourth byte of raw, from the k'th on, into stream
+     *
+     * @return The number of bytes of stream used
+     */
+    private static int pack(byte[] raw, int k, int len, CodeTable table, byte[] stream) {
+        long[] code = table.getCodes();
+        int[] length = table.getLengths();
+        long acc = 0;
+        int fill = 0, n = 0;
+        for (int i = k; i < len; i += STREAMS) {
+            int s = raw[i] & 0xFF;
+            acc = acc << length[s] | code[s];
+            fill += length[s];
+            while (fill >= 8) {
+                fill -= 8;
+                stream[n++] = (byte) (acc >>> fill);
+            }
+        }
+        if (fill > 0)
+            stream[n++] = (byte) (acc << (8 - fill));
+        return n;
+    }
+
+    // The most bytes one stream of a block can take
+    private static int streamCapacity(int blockSize) {
+        return (int) (((long) (blockSize + STREAMS - 1) / STREAMS * MAX_LENGTH + 7) / 8);
+    }
+}
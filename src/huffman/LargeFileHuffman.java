@@ -0,0 +1,251 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * This class codes files of any size, far past 2GB, with a small heap that
+ * doesn't grow with the file. Input and output are memory-mapped a window at
+ * a time, every position is a long, and the code and decode tables live in
+ * direct buffers outside the heap, so coding a file allocates almost nothing
+ * the garbage collector has to look at.
+ *
+ * It writes the same CANONICAL_BYTES format as HuffmanCoding in byte mode,
+ * with codes limited to MAX_LENGTH bits so every symbol is decoded with one
+ * lookup, or the STORED format when coding would not shrink the input. It
+ * decodes any such file, handing files with longer codes to
+ * HuffmanCoding.decodeFileChecked.
+ */
+public class LargeFileHuffman {
+    /** Longest code written, which also bounds the size of the decode table */
+    public static final int MAX_LENGTH = 16;
+    /** Size of each mapped window of the input */
+    public static final long INPUT_WINDOW = SymbolReader.MAP_WINDOW;
+    /** Size of each mapped window of the output */
+    public static final int OUTPUT_WINDOW = 1 << 26;
+    private static final int ALPHABET = 256;
+    // Bits of a code table entry holding the code length, the code is above them
+    private static final int LENGTH_BITS = 5;
+
+    private LargeFileHuffman() {
+    }
+
+    /**
+     * Encodes inputFile into encodedFile
+     *
+     * @param inputFile   The file to encode, read as raw bytes
+     * @param encodedFile The file to write, which doesn't need to exist yet
+     */
+    public static void encode(String inputFile, String encodedFile) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+            long size = in.size();
+            long[] counts = new long[ALPHABET];
+            for (long pos = 0; pos < size; pos += INPUT_WINDOW) {
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(INPUT_WINDOW, size - pos));
+                for (int i = 0, n = window.limit(); i < n; i++)
+                    counts[window.get(i) & 0xFF]++;
+            }
+            CodeTable codes = CodeTable.fromCounts(counts, MAX_LENGTH);
+            if (!CompressionEstimate.of(codes, counts, size).isWorthCoding()) {
+                StoredFile.store(inputFile, encodedFile);
+                return;
+            }
+            long payloadBits = codes.encodedBits(counts);
+
+            // The header is small enough to build in memory first
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            try (BitWriter out = new BitWriter(Channels.newChannel(header))) {
+                FileFormat.writeHeader(out, FileFormat.CANONICAL_BYTES);
+                codes.write(out);
+            }
+            IntBuffer table = ByteBuffer.allocateDirect(4 * ALPHABET).order(ByteOrder.nativeOrder()).asIntBuffer();
+            for (int s = 0; s < ALPHABET; s++)
+                table.put(s, (int) codes.getCodes()[s] << LENGTH_BITS | codes.getLengths()[s]);
+
+            byte[] head = header.toByteArray();
+            // The padding marker takes 1 to 8 bits, so the codes fill payloadBits / 8 + 1 bytes
+            try (MappedOutput out = new MappedOutput(encodedFile, head.length + payloadBits / 8 + 1)) {
+                for (byte b : head)
+                    out.put(b);
+                // The padding marker starts the bits, so codes end on a byte boundary
+                long acc = 1;
+                int fill = 8 - (int) (payloadBits % 8);
+                for (long pos = 0; pos < size; pos += INPUT_WINDOW) {
+                    MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, pos,
+                            Math.min(INPUT_WINDOW, size - pos));
+                    for (int i = 0, n = window.limit(); i < n; i++) {
+                        int e = table.get(window.get(i) & 0xFF);
+                        int len = e & ((1 << LENGTH_BITS) - 1);
+                        acc = acc << len | e >>> LENGTH_BITS;
+                        fill += len;
+                        if (fill >= 32) {
+                            fill -= 32;
+                            out.putInt((int) (acc >>> fill));
+                        }
+                    }
+                }
+                while (fill >= 8) {
+                    fill -= 8;
+                    out.put((byte) (acc >>> fill));
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes a file written by encode(), or by HuffmanCoding in byte mode with
+     * canonical codes, into decodedFile
+     *
+     * @param encodedFile The encoded file
+     * @param decodedFile The file to write, which doesn't need to exist yet
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ)) {
+            BitReader header = new BitReader(in.position(0));
+            int format = FileFormat.readHeader(header);
+            if (format == FileFormat.STORED) {
+                StoredFile.decode(encodedFile, decodedFile);
+                return;
+            }
+            if (format != FileFormat.CANONICAL_BYTES)
+                throw new IOException(encodedFile + " is not a canonical byte coded file");
+            CodeTable codes = CodeTable.read(header, ALPHABET);
+            if (codes.size() > ALPHABET)
+                throw new IOException("Malformed code table header");
+            if (codes.maxLength() > MAX_LENGTH) {
+                HuffmanCoding.decodeFileChecked(encodedFile, decodedFile);
+                return;
+            }
+            header.readPadMarker();
+            long size = in.size(), start = header.bitsRead(), end = 8 * size;
+            int bits = Math.max(1, codes.maxLength());
+            IntBuffer table = lookupTable(codes, bits);
+
+            try (MappedOutput out = new MappedOutput(decodedFile, -1)) {
+                MappedByteBuffer window = null;
+                long windowStart = 0;
+                for (long pos = start; pos < end;) {
+                    long byteIndex = pos >>> 3;
+                    if (window == null || byteIndex - windowStart + 8 > window.limit()
+                            && windowStart + window.limit() < size) {
+                        // Windows overlap by 8 bytes, so any load starting in one fits in it
+                        windowStart = byteIndex;
+                        window = in.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                                Math.min(INPUT_WINDOW + 8, size - windowStart));
+                    }
+                    int at = (int) (byteIndex - windowStart);
+                    long word = window.limit() - at >= 8 ? window.getLong(at) : tail(window, at);
+                    int e = table.get((int) ((word << (pos & 7)) >>> (64 - bits)));
+                    if (e == 0)
+                        throw new IOException("Invalid code in encoded data");
+                    out.put((byte) (e >>> 8));
+                    pos += e & 0xFF;
+                    if (pos > end)
+                        throw new IOException("Codes run past the end of the file");
+                }
+            }
+        }
+    }
+
+    // The last bytes of a window, padded with zeros to a long
+    private static long tail(ByteBuffer window, int at) {
+        long word = 0;
+        for (int i = 0; i < 8; i++)
+            word = word << 8 | (at + i < window.limit() ? window.get(at + i) & 0xFF : 0);
+        return word;
+    }
+
+    /**
+     * Builds a lookup table of the given width in a direct buffer, whose
+     * entries are symbol << 8 | code length, or 0 for bits which start no code
+     */
+    private static IntBuffer lookupTable(CodeTable codes, int bits) {
+        IntBuffer table = ByteBuffer.allocateDirect(4 << bits).order(ByteOrder.nativeOrder()).asIntBuffer();
+        long[] code = codes.getCodes();
+        int[] length = codes.getLengths();
+        for (int s = 0; s < code.length; s++)
+            if (length[s] != 0) {
+                int first = (int) code[s] << (bits - length[s]);
+                for (int i = first; i < first + (1 << (bits - length[s])); i++)
+                    table.put(i, s << 8 | length[s]);
+            }
+        return table;
+    }
+
+    /**
+     * Writes a file a window of OUTPUT_WINDOW bytes at a time. If the length of
+     * the file is known, the windows are mapped and the last is cut to what
+     * remains, so the file never needs truncating while a mapping is live.
+     * Otherwise each window is a direct buffer written through the channel.
+     */
+    private static class MappedOutput implements Closeable {
+        private final FileChannel channel;
+        private final long length;
+        private ByteBuffer window;
+        private long windowStart;
+
+        /**
+         * @param length Bytes the file will hold, or -1 if not known
+         */
+        MappedOutput(String fileName, long length) throws IOException {
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.length = length;
+            window = length < 0 ? ByteBuffer.allocateDirect(OUTPUT_WINDOW) : map();
+        }
+
+        void put(byte b) throws IOException {
+            if (!window.hasRemaining())
+                next();
+            window.put(b);
+        }
+
+        void putInt(int v) throws IOException {
+            if (window.remaining() >= 4)
+                window.putInt(v);
+            else
+                for (int shift = 24; shift >= 0; shift -= 8)
+                    put((byte) (v >>> shift));
+        }
+
+        private ByteBuffer map() throws IOException {
+            return channel.map(FileChannel.MapMode.READ_WRITE, windowStart,
+                    Math.min(OUTPUT_WINDOW, length - windowStart));
+        }
+
+        private void next() throws IOException {
+            if (length < 0) {
+                drain();
+                return;
+            }
+            windowStart += window.capacity();
+            if (windowStart >= length)
+                throw new IOException("Output runs past its expected " + length + " bytes");
+            window = map();
+        }
+
+        private void drain() throws IOException {
+            window.flip();
+            while (window.hasRemaining())
+                channel.write(window);
+            window.clear();
+        }
+
+        public void close() throws IOException {
+            try {
+                if (length < 0)
+                    drain();
+                else if (windowStart + window.position() != length)
+                    throw new IOException("Wrote " + (windowStart + window.position()) + " of " + length + " bytes");
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
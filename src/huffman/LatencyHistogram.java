@@ -0,0 +1,82 @@
+package huffman;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts durations into buckets whose bounds are powers of two
+ * nanoseconds, so recording a value is one increment and the whole range
+ * from a nanosecond to centuries fits in 64 counters. Percentiles are
+ * reported as the upper bound of the bucket they fall in, which is never
+ * more than twice the real value. It can be updated from many threads.
+ */
+public class LatencyHistogram {
+    /** Number of buckets, bucket i holds durations below 2^i nanoseconds */
+    public static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records one duration
+     *
+     * @param nanos The duration in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+    }
+
+    /** Returns the number of durations recorded */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += counts.get(i);
+        return total;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile in nanoseconds, or 0 if
+     * nothing has been recorded
+     *
+     * @param percentile From 0 to 100
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long c : snapshot)
+            total += c;
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return upperBound(i);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /** Returns a copy of the bucket counts */
+    public long[] snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            copy[i] = counts.get(i);
+        return copy;
+    }
+
+    /** Returns the exclusive upper bound of bucket i in nanoseconds */
+    public static long upperBound(int i) {
+        return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+    }
+
+    /** Clears every bucket */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+    }
+
+    private static int bucket(long nanos) {
+        if (nanos <= 0)
+            return 0;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+}
@@ -0,0 +1,92 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * This class computes optimal code lengths which are no longer than a given
+ * limit, using the package-merge algorithm. Each symbol is a coin whose value
+ * is its count, offered once at every code length up to the limit. Pairs of
+ * the cheapest coins at one length are packaged into a coin of the next
+ * shorter length, and the cheapest 2n - 2 coins at length 1 then tell how
+ * many times each symbol was used, which is its code length.
+ */
+public class PackageMerge {
+    private PackageMerge() {
+    }
+
+    /**
+     * Returns the code length of each symbol
+     *
+     * @param counts    Occurrences of each symbol, indexed by symbol
+     * @param maxLength The longest code allowed
+     * @return Code lengths indexed by symbol, 0 for symbols which don't occur
+     */
+    public static int[] lengths(long[] counts, int maxLength) {
+        int[] lengths = new int[counts.length];
+        int n = 0;
+        for (long c : counts)
+            if (c > 0)
+                n++;
+        if (n == 0)
+            return lengths;
+        if (maxLength < 1 || maxLength > CodeTable.MAX_CODE_LENGTH || (maxLength < 31 && (1 << maxLength) < n))
+            throw new IllegalArgumentException(n + " symbols do not fit in codes of at most " + maxLength + " bits");
+
+        // Symbols which occur, sorted by count
+        int[] symbols = new int[n];
+        long[] weights = new long[n];
+        Integer[] order = new Integer[n];
+        for (int s = 0, i = 0; s < counts.length; s++)
+            if (counts[s] > 0)
+                order[i++] = s;
+        Arrays.sort(order, (a, b) -> counts[a] != counts[b] ? Long.compare(counts[a], counts[b]) : Integer.compare(a, b));
+        for (int i = 0; i < n; i++) {
+            symbols[i] = order[i];
+            weights[i] = counts[order[i]];
+        }
+        if (n == 1) {
+            lengths[symbols[0]] = 1;
+            return lengths;
+        }
+
+        // The merged list of every length, from the longest to length 1, with
+        // a flag telling packages apart from single coins
+        long[][] listWeights = new long[maxLength][];
+        boolean[][] isPackage = new boolean[maxLength][];
+        listWeights[maxLength - 1] = weights;
+        isPackage[maxLength - 1] = new boolean[n];
+        for (int level = maxLength - 2; level >= 0; level--) {
+            long[] prev = listWeights[level + 1];
+            int packages = prev.length / 2;
+            long[] merged = new long[n + packages];
+            boolean[] pkg = new boolean[n + packages];
+            int i = 0, j = 0, k = 0;
+            while (i < n || j < packages) {
+                long p = j < packages ? prev[2 * j] + prev[2 * j + 1] : Long.MAX_VALUE;
+                if (i < n && weights[i] <= p) {
+                    merged[k++] = weights[i++];
+                } else {
+                    pkg[k] = true;
+                    merged[k++] = p;
+                    j++;
+                }
+            }
+            listWeights[level] = merged;
+            isPackage[level] = pkg;
+        }
+
+        // Every single coin among the chosen ones adds one to its symbol's length,
+        // and every chosen package stands for two chosen coins one length down
+        int take = 2 * n - 2;
+        for (int level = 0; level < maxLength && take > 0; level++) {
+            int leaves = 0;
+            for (int i = 0; i < take; i++)
+                if (!isPackage[level][i])
+                    leaves++;
+            for (int i = 0; i < leaves; i++)
+                lengths[symbols[i]]++;
+            take = 2 * (take - leaves);
+        }
+        return lengths;
+    }
+}
@@ -0,0 +1,296 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+/**
+ * This class compresses and decompresses large files in parallel on a
+ * ForkJoinPool. The input bytes are split into chunks of a fixed size which
+ * are counted, encoded and decoded independently. Chunks share one code table
+ * built from the merged histograms, or each carry their own.
+ *
+ * The encoded file is a CHUNKED header, the chunks one after another, each
+ * starting on a byte boundary, then an index of the bit length of every chunk
+ * and finally the position of that index as 8 bytes.
+ */
+public class ParallelHuffman {
+    /** Chunk size used unless another is given */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int ALPHABET = 256;
+
+    private final int chunkSize;
+    private final boolean perChunkTables;
+    private final ForkJoinPool pool;
+
+    public ParallelHuffman() {
+        this(DEFAULT_CHUNK_SIZE, false, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param chunkSize      Number of input bytes per chunk
+     * @param perChunkTables True to give every chunk its own code table instead
+     *                       of one table for the whole file
+     * @param pool           The pool the chunks are processed on
+     */
+    public ParallelHuffman(int chunkSize, boolean perChunkTables, ForkJoinPool pool) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        this.chunkSize = chunkSize;
+        this.perChunkTables = perChunkTables;
+        this.pool = pool;
+    }
+
+    /**
+     * Encodes inputFile into encodedFile
+     *
+     * @param inputFile   The file to encode, read as raw bytes
+     * @param encodedFile The file to write, which doesn't need to exist yet
+     */
+    public void encode(String inputFile, String encodedFile) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long length = in.size();
+            int chunks = (int) ((length + chunkSize - 1) / chunkSize);
+            // Codes no longer than the lookup width always decode in a single lookup
+            CodeTable shared = perChunkTables ? null
+                    : CodeTable.fromCounts(invoke(new CountTask(in, length, 0, chunks)), DecodeTable.DEFAULT_LOOKUP_BITS);
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            try (BitWriter w = new BitWriter(Channels.newChannel(header))) {
+                FileFormat.writeHeader(w, FileFormat.CHUNKED);
+                w.writeVarLong(length);
+                w.writeVarLong(chunkSize);
+                w.writeByte(perChunkTables ? 1 : 0);
+                if (shared != null)
+                    shared.write(w);
+            }
+            writeFully(out, header.toByteArray());
+
+            // Encode a few chunks per thread at a time, writing them in order, so
+            // only that many encoded chunks are ever held in memory
+            long[] bitLengths = new long[chunks];
+            int wave = Math.max(1, pool.getParallelism() * 2);
+            for (int first = 0; first < chunks; first += wave) {
+                ArrayList<EncodeTask> tasks = new ArrayList<EncodeTask>();
+                for (int c = first; c < Math.min(chunks, first + wave); c++)
+                    tasks.add(new EncodeTask(in, length, c, shared));
+                invoke(new InvokeAll(tasks));
+                for (EncodeTask t : tasks) {
+                    bitLengths[t.chunk] = t.bits;
+                    writeFully(out, t.encoded);
+                }
+            }
+
+            long indexPosition = out.position();
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            try (BitWriter w = new BitWriter(Channels.newChannel(index))) {
+                w.writeVarLong(chunks);
+                for (long bits : bitLengths)
+                    w.writeVarLong(bits);
+                w.writeBits(indexPosition, 64);
+            }
+            writeFully(out, index.toByteArray());
+        }
+    }
+
+    /**
+     * Decodes a file written by encode() into decodedFile, decoding its chunks
+     * in parallel at the offsets recorded in its index
+     *
+     * @param encodedFile The file written by encode()
+     * @param decodedFile The file to write, which doesn't need to exist yet
+     */
+    public void decode(String encodedFile, String decodedFile) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(Paths.get(decodedFile), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            BitReader header = new BitReader(in.position(0));
+            if (FileFormat.readHeader(header) != FileFormat.CHUNKED)
+                throw new IOException(encodedFile + " is not a chunked file");
+            long length = header.readVarLong();
+            long size = header.readVarLong();
+            boolean ownTables = header.readByte() != 0;
+            DecodeTable shared = ownTables ? null : new DecodeTable(CodeTable.read(header, ALPHABET));
+            long offset = header.bitsRead() / 8;
+
+            ByteBuffer tail = ByteBuffer.allocate(8);
+            readFully(in, tail, in.size() - 8);
+            long indexPosition = tail.getLong(0);
+            BitReader index = new BitReader(in.position(indexPosition));
+            int chunks = (int) index.readVarLong();
+            if (chunks != (length + size - 1) / size)
+                throw new IOException("Chunk index does not match the header");
+
+            ArrayList<DecodeTask> tasks = new ArrayList<DecodeTask>();
+            for (int c = 0; c < chunks; c++) {
+                long bits = index.readVarLong();
+                int rawLength = (int) Math.min(size, length - c * size);
+                tasks.add(new DecodeTask(in, out, offset, bits, c * size, rawLength, shared));
+                offset += (bits + 7) / 8;
+            }
+            invoke(new InvokeAll(tasks));
+        }
+    }
+
+    private <T> T invoke(ForkJoinTask<T> task) throws IOException {
+        try {
+            return pool.invoke(task);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static byte[] readChunk(FileChannel in, long position, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        readFully(in, buf, position);
+        return buf.array();
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining())
+            if (in.read(buf, position + buf.position()) < 0)
+                throw new EOFException("Unexpected end of file");
+    }
+
+    private static void writeFully(FileChannel out, byte[] bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining())
+            out.write(buf);
+    }
+
+    private static long[] count(byte[] bytes) {
+        long[] counts = new long[ALPHABET];
+        for (byte b : bytes)
+            counts[b & 0xFF]++;
+        return counts;
+    }
+
+    /** Sums the histograms of a range of chunks, splitting the range in half */
+    @SuppressWarnings("serial") // Tasks are never serialized
+    private class CountTask extends RecursiveTask<long[]> {
+        private final FileChannel in;
+        private final long length;
+        private final int lo, hi;
+
+        CountTask(FileChannel in, long length, int lo, int hi) {
+            this.in = in;
+            this.length = length;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected long[] compute() {
+            if (hi - lo <= 1) {
+                if (lo == hi)
+                    return new long[ALPHABET];
+                long start = (long) lo * chunkSize;
+                try {
+                    return count(readChunk(in, start, (int) Math.min(chunkSize, length - start)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int mid = (lo + hi) >>> 1;
+            CountTask right = new CountTask(in, length, mid, hi);
+            right.fork();
+            long[] counts = new CountTask(in, length, lo, mid).compute();
+            long[] other = right.join();
+            for (int i = 0; i < ALPHABET; i++)
+                counts[i] += other[i];
+            return counts;
+        }
+    }
+
+    /** Encodes one chunk into a byte aligned array */
+    @SuppressWarnings("serial")
+    private class EncodeTask extends RecursiveAction {
+        private final FileChannel in;
+        private final long length;
+        private final int chunk;
+        private final CodeTable shared;
+        byte[] encoded;
+        long bits;
+
+        EncodeTask(FileChannel in, long length, int chunk, CodeTable shared) {
+            this.in = in;
+            this.length = length;
+            this.chunk = chunk;
+            this.shared = shared;
+        }
+
+        protected void compute() {
+            long start = (long) chunk * chunkSize;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(chunkSize / 2 + 64);
+            try (BitWriter w = new BitWriter(Channels.newChannel(bytes))) {
+                byte[] raw = readChunk(in, start, (int) Math.min(chunkSize, length - start));
+                CodeTable table = shared != null ? shared
+                        : CodeTable.fromCounts(count(raw), DecodeTable.DEFAULT_LOOKUP_BITS);
+                long[] codes = table.getCodes();
+                int[] lengths = table.getLengths();
+                if (shared == null)
+                    table.write(w);
+                for (byte b : raw)
+                    w.writeBits(codes[b & 0xFF], lengths[b & 0xFF]);
+                bits = w.bitsWritten();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            encoded = bytes.toByteArray();
+        }
+    }
+
+    /** Decodes one chunk and writes it at its place in the output */
+    @SuppressWarnings("serial")
+    private static class DecodeTask extends RecursiveAction {
+        private final FileChannel in, out;
+        private final long position, bits, outPosition;
+        private final int rawLength;
+        private final DecodeTable shared;
+
+        DecodeTask(FileChannel in, FileChannel out, long position, long bits, long outPosition, int rawLength,
+                DecodeTable shared) {
+            this.in = in;
+            this.out = out;
+            this.position = position;
+            this.bits = bits;
+            this.outPosition = outPosition;
+            this.rawLength = rawLength;
+            this.shared = shared;
+        }
+
+        protected void compute() {
+            byte[] raw = new byte[rawLength];
+            try (BitReader r = new BitReader(Channels.newChannel(
+                    new ByteArrayInputStream(readChunk(in, position, (int) ((bits + 7) / 8)))))) {
+                DecodeTable table = shared != null ? shared : new DecodeTable(CodeTable.read(r, ALPHABET));
+                for (int i = 0; i < rawLength; i++)
+                    raw[i] = (byte) table.decode(r);
+                ByteBuffer buf = ByteBuffer.wrap(raw);
+                while (buf.hasRemaining())
+                    out.write(buf, outPosition + buf.position());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** Runs a list of tasks and waits for all of them */
+    @SuppressWarnings("serial")
+    private static class InvokeAll extends RecursiveAction {
+        private final ArrayList<? extends ForkJoinTask<?>> tasks;
+
+        InvokeAll(ArrayList<? extends ForkJoinTask<?>> tasks) {
+            this.tasks = tasks;
+        }
+
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This class reads a channel ahead of its consumer on a thread of its own, so
+ * the disk is busy while the bytes already read are being coded. The reader
+ * thread fills a few direct buffers and hands them over through a bounded
+ * queue; the consumer hands each one back once it has taken its bytes, so the
+ * same buffers are used for the whole file and the reader can never get more
+ * than a fixed number of bytes ahead.
+ */
+public class ReadAheadChannel implements ReadableByteChannel {
+    /** Number of buffers in flight unless another is given */
+    public static final int DEFAULT_BUFFERS = 4;
+    /** Size of each buffer unless another is given */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 18;
+    // Handed over after the last buffer, or after a failure
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final ReadableByteChannel source;
+    private final BlockingQueue<ByteBuffer> full, free;
+    private final Thread reader;
+    private volatile IOException failure;
+    private ByteBuffer current;
+    private boolean open = true;
+
+    /**
+     * Starts reading the given channel ahead
+     *
+     * @param source     The channel to read, closed when this one is
+     * @param buffers    Number of buffers to cycle, at least 2
+     * @param bufferSize Size of each buffer
+     */
+    public ReadAheadChannel(ReadableByteChannel source, int buffers, int bufferSize) {
+        if (buffers < 2 || bufferSize <= 0)
+            throw new IllegalArgumentException("Read ahead needs at least 2 buffers of a positive size");
+        this.source = source;
+        full = new ArrayBlockingQueue<ByteBuffer>(buffers + 1);
+        free = new ArrayBlockingQueue<ByteBuffer>(buffers);
+        for (int i = 0; i < buffers; i++)
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        reader = new Thread(this::fill, "huffman-read-ahead");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Opens the given file and starts reading it ahead with the default buffers
+     *
+     * @param fileName The file to read
+     */
+    public static ReadAheadChannel open(String fileName) throws IOException {
+        return new ReadAheadChannel(FileChannel.open(Paths.get(fileName), StandardOpenOption.READ),
+                DEFAULT_BUFFERS, DEFAULT_BUFFER_SIZE);
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open)
+            throw new ClosedChannelException();
+        while (current == null || !current.hasRemaining()) {
+            if (current == END)
+                return -1;
+            if (current != null)
+                free.add(current);
+            try {
+                current = full.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for input");
+            }
+            if (current == END && failure != null)
+                throw failure;
+        }
+        int n = Math.min(dst.remaining(), current.remaining());
+        dst.put(current.slice().limit(n));
+        current.position(current.position() + n);
+        return n;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /** Stops the reader thread and closes the source channel */
+    public void close() throws IOException {
+        if (!open)
+            return;
+        open = false;
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            source.close();
+        }
+    }
+
+    private void fill() {
+        try {
+            while (true) {
+                ByteBuffer buf = free.take();
+                buf.clear();
+                int n;
+                do {
+                    n = source.read(buf);
+                } while (n == 0);
+                if (n < 0)
+                    break;
+                // Fill the rest of the buffer too, unless the source is at its end
+                while (buf.hasRemaining() && (n = source.read(buf)) > 0)
+                    ;
+                buf.flip();
+                full.put(buf);
+                if (n < 0)
+                    break;
+            }
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            // Closed by the consumer, nobody is waiting for more
+            return;
+        } catch (IOException e) {
+            failure = e;
+        }
+        // The queue has room for every buffer and END, so this never waits
+        full.add(END);
+    }
+}
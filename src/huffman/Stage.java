@@ -0,0 +1,17 @@
+package huffman;
+
+/**
+ * The stages of a compression job, in the order HuffmanCoding runs them
+ */
+public enum Stage {
+    /** Reading the file and counting its symbols, makeSortedList */
+    COUNT,
+    /** Building the huffman tree, makeTree */
+    TREE,
+    /** Assigning the codes, makeEncodings */
+    ENCODINGS,
+    /** Reading the file again and writing its codes, encode */
+    ENCODE,
+    /** Reading the codes and writing the original file, decode */
+    DECODE
+}
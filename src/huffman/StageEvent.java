@@ -0,0 +1,31 @@
+package huffman;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for one stage of a compression job. The event's own
+ * duration is the wall time of the stage.
+ */
+@Name("huffman.Stage")
+@Label("Huffman Stage")
+@Category("Huffman")
+@Description("One stage of a Huffman compression job")
+@StackTrace(false)
+class StageEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("I/O Time")
+    @Timespan
+    long ioNanos;
+
+    // Not recorded, the clock reading endStage measures the stage from
+    transient long startNanos;
+}
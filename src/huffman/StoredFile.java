@@ -0,0 +1,61 @@
+package huffman;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * This class reads and writes the stored format, which keeps the input bytes
+ * as they are behind a STORED header. Coders fall back to it when
+ * CompressionEstimate expects no gain from coding. The bytes are moved with
+ * FileChannel.transferTo, so the operating system can copy them without
+ * passing them through the JVM.
+ */
+public class StoredFile {
+    private StoredFile() {
+    }
+
+    /**
+     * Stores inputFile into encodedFile uncoded
+     *
+     * @param inputFile   The file to store
+     * @param encodedFile The file to write, which doesn't need to exist yet
+     */
+    public static void store(String inputFile, String encodedFile) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // Flushed rather than closed, which would close out
+            BitWriter header = new BitWriter(out);
+            FileFormat.writeHeader(header, FileFormat.STORED);
+            header.flush();
+            transfer(in, 0, in.size(), out);
+        }
+    }
+
+    /**
+     * Copies the bytes of a file written by store() into decodedFile
+     *
+     * @param encodedFile The file written by store()
+     * @param decodedFile The file to write, which doesn't need to exist yet
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        if (FileFormat.of(encodedFile) != FileFormat.STORED)
+            throw new IOException(encodedFile + " is not a stored file");
+        try (FileChannel in = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(Paths.get(decodedFile), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            transfer(in, 4, in.size() - 4, out);
+        }
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(position, count, out);
+            if (n <= 0 && position >= in.size())
+                throw new EOFException("Unexpected end of file");
+            position += n;
+            count -= n;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package huffman;
+
+import java.io.IOException;
+
+/**
+ * This class holds the inner loops over raw bytes which the coders share:
+ * counting a histogram and packing the codes of bytes into a BitWriter. The
+ * methods here are the plain scalar loops. When the jdk.incubator.vector
+ * module is present, get() returns VectorKernels instead, which computes the
+ * same results with the Vector API; the module is only looked for, never
+ * required, so the JVM runs without --add-modules just as before. Vector
+ * code is slow until the JIT has compiled it, so it pays off in processes
+ * which code a lot of data rather than in one short run.
+ *
+ * Setting the huffman.scalar system property to true keeps the scalar loops
+ * even when the module is present.
+ */
+public class SymbolKernels {
+    private static final SymbolKernels SCALAR = new SymbolKernels();
+    private static final SymbolKernels DEFAULT = load();
+
+    SymbolKernels() {
+    }
+
+    /** Returns the fastest kernels this JVM supports */
+    public static SymbolKernels get() {
+        return DEFAULT;
+    }
+
+    /** Returns the scalar kernels, whatever this JVM supports */
+    public static SymbolKernels scalar() {
+        return SCALAR;
+    }
+
+    /** Returns a short name for the kernels, for logs and benchmarks */
+    public String name() {
+        return "scalar";
+    }
+
+    /**
+     * Adds the number of times each byte occurs in buf[off] to buf[off + len - 1]
+     * to counts
+     *
+     * @param counts At least 256 counters, indexed by unsigned byte value
+     */
+    public void count(byte[] buf, int off, int len, long[] counts) {
+        for (int i = off; i < off + len; i++)
+            counts[buf[i] & 0xFF]++;
+    }
+
+    /**
+     * Writes the codes of buf[off] to buf[off + len - 1] to out
+     *
+     * @param codes   Code of each byte, indexed by unsigned byte value
+     * @param lengths Code length of each byte, indexed the same way
+     */
+    public void pack(byte[] buf, int off, int len, long[] codes, int[] lengths, BitWriter out) throws IOException {
+        for (int i = off; i < off + len; i++)
+            out.writeBits(codes[buf[i] & 0xFF], lengths[buf[i] & 0xFF]);
+    }
+
+    private static SymbolKernels load() {
+        if (Boolean.getBoolean("huffman.scalar") || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return SCALAR;
+        // Loaded by name so that the vector classes are only linked when present
+        try {
+            return (SymbolKernels) Class.forName("huffman.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+    }
+}
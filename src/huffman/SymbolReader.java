@@ -0,0 +1,200 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+
+/**
+ * This class reads a file through a FileChannel, either into one large
+ * reusable direct ByteBuffer or by memory-mapping the file window by window,
+ * and hands it out as raw bytes or as UTF-8 decoded characters. Any other
+ * channel can be read through the buffer too.
+ */
+public class SymbolReader implements Closeable {
+    /** Size of the buffer used when the file is not memory-mapped */
+    public static final int BUFFER_SIZE = 1 << 18;
+    /** Largest region mapped at once, files bigger than this are mapped in windows */
+    public static final long MAP_WINDOW = 1L << 30;
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final ReadableByteChannel channel;
+    private final boolean mapped;
+    private ByteBuffer buffer;
+    private long mapPosition;
+    private long ioNanos;
+    private int pendingLowSurrogate = -1;
+
+    /**
+     * Opens the given file for reading
+     *
+     * @param fileName The file to read
+     * @param mapped   Whether to memory-map the file instead of reading it into
+     *                 a buffer
+     */
+    public SymbolReader(String fileName, boolean mapped) throws IOException {
+        this(FileChannel.open(Paths.get(fileName), StandardOpenOption.READ), mapped);
+    }
+
+    /**
+     * Creates a reader on the given channel, which is read into a buffer
+     *
+     * @param channel The channel the bytes are read from
+     */
+    public SymbolReader(ReadableByteChannel channel) {
+        this(channel, false);
+    }
+
+    private SymbolReader(ReadableByteChannel channel, boolean mapped) {
+        this.channel = channel;
+        this.mapped = mapped;
+        if (!mapped) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.flip();
+        } else
+            buffer = ByteBuffer.allocate(0);
+    }
+
+    /**
+     * Returns the next byte of the file as an int from 0 to 255, or -1 at the
+     * end of the file
+     */
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !refill())
+            return -1;
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Reads up to len bytes into dst, returning how many were read or -1 at the
+     * end of the file
+     */
+    public int read(byte[] dst, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!buffer.hasRemaining() && !refill())
+            return -1;
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(dst, off, n);
+        return n;
+    }
+
+    /**
+     * Reads until raw is full or the file ends, returning how many bytes were
+     * read, so the block coders get whole blocks whatever the buffer holds
+     */
+    int readBlock(byte[] raw) throws IOException {
+        int len = 0;
+        while (len < raw.length) {
+            int n = read(raw, len, raw.length - len);
+            if (n < 0)
+                break;
+            len += n;
+        }
+        return len;
+    }
+
+    /**
+     * Returns the next UTF-16 character of the file decoded as UTF-8, or -1 at
+     * the end of the file. Characters outside the BMP are returned as two
+     * surrogates, and malformed input is replaced by U+FFFD.
+     */
+    public int readChar() throws IOException {
+        if (pendingLowSurrogate >= 0) {
+            int c = pendingLowSurrogate;
+            pendingLowSurrogate = -1;
+            return c;
+        }
+        if (!buffer.hasRemaining() && !refill())
+            return -1;
+        byte b = buffer.get();
+        if (b >= 0)
+            return b;
+        return decodeMultiByte(b & 0xFF);
+    }
+
+    private int decodeMultiByte(int b) throws IOException {
+        int need, cp, min;
+        if ((b & 0xE0) == 0xC0) {
+            need = 1;
+            cp = b & 0x1F;
+            min = 0x80;
+        } else if ((b & 0xF0) == 0xE0) {
+            need = 2;
+            cp = b & 0x0F;
+            min = 0x800;
+        } else if ((b & 0xF8) == 0xF0) {
+            need = 3;
+            cp = b & 0x07;
+            min = 0x10000;
+        } else
+            return REPLACEMENT;
+
+        // Only consume bytes which really are continuation bytes
+        for (int i = 0; i < need; i++) {
+            if (!buffer.hasRemaining() && !refill())
+                return REPLACEMENT;
+            int next = buffer.get(buffer.position()) & 0xFF;
+            if ((next & 0xC0) != 0x80)
+                return REPLACEMENT;
+            buffer.get();
+            cp = (cp << 6) | (next & 0x3F);
+        }
+        if (cp < min || cp > Character.MAX_CODE_POINT || (cp >= 0xD800 && cp <= 0xDFFF))
+            return REPLACEMENT;
+        if (cp < 0x10000)
+            return cp;
+        pendingLowSurrogate = Character.lowSurrogate(cp);
+        return Character.highSurrogate(cp);
+    }
+
+    /**
+     * Returns the time spent reading from the channel so far, in nanoseconds.
+     * A memory-mapped file only counts the time to map each window, since its
+     * page faults happen while the bytes are being used.
+     */
+    public long ioNanos() {
+        return ioNanos;
+    }
+
+    /** Returns how many bytes of buffer or mapped window the reader holds */
+    public int bufferSize() {
+        return mapped ? buffer.capacity() : BUFFER_SIZE;
+    }
+
+    private boolean refill() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return fill();
+        } finally {
+            ioNanos += System.nanoTime() - start;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (mapped) {
+            FileChannel channel = (FileChannel) this.channel;
+            long size = channel.size();
+            if (mapPosition >= size)
+                return false;
+            long length = Math.min(MAP_WINDOW, size - mapPosition);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, mapPosition, length);
+            mapPosition += length;
+            buffer = map;
+            return true;
+        }
+        buffer.clear();
+        int n;
+        do {
+            n = channel.read(buffer);
+        } while (n == 0);
+        buffer.flip();
+        return n > 0;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,137 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+
+/**
+ * This class is the output counterpart of SymbolReader. It collects raw bytes
+ * or UTF-8 encoded characters in a reusable array and writes the buffer to a
+ * channel whenever it fills up.
+ */
+public class SymbolWriter implements Closeable {
+    /** Size of the buffer drained to the channel */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final byte[] buffer;
+    private int count;
+    private long ioNanos;
+    private int pendingHighSurrogate = -1;
+
+    /**
+     * Creates a writer on the given channel
+     *
+     * @param channel The channel the bytes are written to
+     */
+    public SymbolWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a writer on the given file, which doesn't need to exist yet
+     *
+     * @param fileName The file to write to
+     */
+    public SymbolWriter(String fileName) throws IOException {
+        this(FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    /** Writes the low 8 bits of b */
+    public void write(int b) throws IOException {
+        if (count == buffer.length)
+            drain();
+        buffer[count++] = (byte) b;
+    }
+
+    /** Writes len bytes of src starting at off */
+    public void write(byte[] src, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length)
+                drain();
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(src, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes a UTF-16 character as UTF-8. A surrogate pair is written once both
+     * halves have been given, and unpaired surrogates become U+FFFD.
+     */
+    public void writeChar(int c) throws IOException {
+        if (c < 0x80 && pendingHighSurrogate < 0) {
+            write(c);
+            return;
+        }
+        if (pendingHighSurrogate >= 0) {
+            int high = pendingHighSurrogate;
+            pendingHighSurrogate = -1;
+            if (Character.isLowSurrogate((char) c)) {
+                writeCodePoint(Character.toCodePoint((char) high, (char) c));
+                return;
+            }
+            writeCodePoint(0xFFFD);
+        }
+        if (Character.isHighSurrogate((char) c))
+            pendingHighSurrogate = c;
+        else
+            writeCodePoint(Character.isLowSurrogate((char) c) ? 0xFFFD : c);
+    }
+
+    private void writeCodePoint(int cp) throws IOException {
+        if (cp < 0x80)
+            write(cp);
+        else if (cp < 0x800) {
+            write(0xC0 | (cp >>> 6));
+            write(0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            write(0xE0 | (cp >>> 12));
+            write(0x80 | ((cp >>> 6) & 0x3F));
+            write(0x80 | (cp & 0x3F));
+        } else {
+            write(0xF0 | (cp >>> 18));
+            write(0x80 | ((cp >>> 12) & 0x3F));
+            write(0x80 | ((cp >>> 6) & 0x3F));
+            write(0x80 | (cp & 0x3F));
+        }
+    }
+
+    /** Returns the time spent waiting on the channel so far, in nanoseconds */
+    public long ioNanos() {
+        return ioNanos;
+    }
+
+    /** Writes everything buffered so far to the channel */
+    public void flush() throws IOException {
+        drain();
+    }
+
+    /** Flushes the buffer, writing any unpaired high surrogate as U+FFFD, and closes the channel */
+    public void close() throws IOException {
+        try {
+            if (pendingHighSurrogate >= 0) {
+                pendingHighSurrogate = -1;
+                writeCodePoint(0xFFFD);
+            }
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, count);
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+        count = 0;
+        ioNanos += System.nanoTime() - start;
+    }
+}
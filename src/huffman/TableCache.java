@@ -0,0 +1,156 @@
+package huffman;
+
+import java.util.*;
+
+/**
+ * This class keeps the code tables built most recently, so that inputs with
+ * nearly the same distribution of symbols skip building them again.
+ *
+ * Encoding tables are found by a fingerprint of the histogram, which keeps
+ * which symbols occur and, for each, -log2 of its probability rounded down
+ * to a whole bit and capped at the length limit. Inputs with the same
+ * fingerprint share one table. It was built for the first of them, but
+ * every symbol of the others has a code and no code is more than about a bit
+ * away from the optimal one. Decoding tables are found by the exact code
+ * lengths they were built from, so they are always the right ones.
+ *
+ * Both kinds are evicted least recently used first. The cache can be shared
+ * between threads.
+ */
+public class TableCache {
+    /** Number of tables of each kind kept unless another capacity is given */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final TableCache SHARED = new TableCache(DEFAULT_CAPACITY);
+
+    private final Map<Key, CodeTable> encoders;
+    private final Map<Key, DecodeTable> decoders;
+    private long hits, misses;
+
+    public TableCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Most tables of each kind to keep
+     */
+    public TableCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        encoders = lru(capacity);
+        decoders = lru(capacity);
+    }
+
+    /** Returns the cache used by the block decoders */
+    public static TableCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns canonical codes suited to the given counts, no longer than
+     * maxLength, building them only if no input with the same fingerprint has
+     * been seen recently
+     *
+     * @param counts    Occurrences of each symbol, indexed by symbol
+     * @param maxLength The longest code allowed
+     */
+    public CodeTable encoder(long[] counts, int maxLength) {
+        Key key = fingerprint(counts, maxLength);
+        synchronized (this) {
+            CodeTable table = encoders.get(key);
+            if (table != null) {
+                hits++;
+                return table;
+            }
+            misses++;
+        }
+        // Build outside the lock, a race only means building the same table twice
+        CodeTable table = CodeTable.fromCounts(counts, maxLength);
+        synchronized (this) {
+            encoders.put(key, table);
+        }
+        return table;
+    }
+
+    /**
+     * Returns the decoding table of the given canonical codes
+     */
+    public DecodeTable decoder(CodeTable codes) {
+        int[] lengths = codes.getLengths();
+        byte[] bytes = new byte[lengths.length];
+        for (int i = 0; i < lengths.length; i++)
+            bytes[i] = (byte) lengths[i];
+        Key key = new Key(bytes);
+        synchronized (this) {
+            DecodeTable table = decoders.get(key);
+            if (table != null) {
+                hits++;
+                return table;
+            }
+            misses++;
+        }
+        DecodeTable table = new DecodeTable(codes);
+        synchronized (this) {
+            decoders.put(key, table);
+        }
+        return table;
+    }
+
+    /** Number of lookups which found a table */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /** Number of lookups which had to build a table */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /** Drops every table */
+    public synchronized void clear() {
+        encoders.clear();
+        decoders.clear();
+    }
+
+    private static Key fingerprint(long[] counts, int maxLength) {
+        long total = 0;
+        for (long c : counts)
+            total += c;
+        byte[] bytes = new byte[counts.length + 1];
+        bytes[0] = (byte) maxLength;
+        for (int s = 0; s < counts.length; s++)
+            if (counts[s] > 0) {
+                // floor(log2(total / count)) up to the length limit, plus one to
+                // tell it from absent
+                int bits = Math.getExponent((double) total / counts[s]);
+                bytes[s + 1] = (byte) (1 + Math.min(bits, maxLength));
+            }
+        return new Key(bytes);
+    }
+
+    private static <V> Map<Key, V> lru(int capacity) {
+        return new LinkedHashMap<Key, V>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private static class Key {
+        private final byte[] bytes;
+        private final int hash;
+
+        Key(byte[] bytes) {
+            this.bytes = bytes;
+            hash = Arrays.hashCode(bytes);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(bytes, ((Key) o).bytes);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class maps table ids to TrainedTables, so data coded with a trained
+ * table can be decoded from the id it carries. The default registry loads the
+ * tables saved in the directory named by the system property huffman.tables.
+ *
+ * A registry holds every table added to it unless it is given a bound, in
+ * which case it drops the least recently used table once it holds more. An
+ * id then stays valid until that many other tables have been added, looked
+ * up or added again after its table was last used.
+ */
+public class TableRegistry {
+    private static volatile TableRegistry defaultRegistry;
+
+    private final Map<Integer, TrainedTable> tables;
+
+    /** Creates a registry which keeps every table added to it */
+    public TableRegistry() {
+        tables = new ConcurrentHashMap<Integer, TrainedTable>();
+    }
+
+    /**
+     * Creates a registry which keeps the most recently used maxTables tables
+     *
+     * @param maxTables Most tables held at once
+     */
+    public TableRegistry(int maxTables) {
+        if (maxTables <= 0)
+            throw new IllegalArgumentException("A registry must hold at least one table");
+        tables = Collections.synchronizedMap(new LinkedHashMap<Integer, TrainedTable>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, TrainedTable> eldest) {
+                return size() > maxTables;
+            }
+        });
+    }
+
+    /** Adds a table, replacing any other with the same id */
+    public void add(TrainedTable table) {
+        tables.put(table.getId(), table);
+    }
+
+    /**
+     * Adds a table unless one with the same id is there already, so the
+     * decoding table built by the one already there is kept. Either way the
+     * table counts as just used.
+     *
+     * @return The table now registered under the id
+     */
+    public TrainedTable addIfAbsent(TrainedTable table) {
+        TrainedTable old = tables.putIfAbsent(table.getId(), table);
+        return old == null ? table : old;
+    }
+
+    /**
+     * Returns the table with the given id
+     *
+     * @throws IOException If no such table has been added
+     */
+    public TrainedTable get(int id) throws IOException {
+        TrainedTable table = tables.get(id);
+        if (table == null)
+            throw new IOException("No code table with id " + Integer.toHexString(id));
+        return table;
+    }
+
+    /**
+     * Adds every table saved in a directory under a name ending in
+     * TrainedTable.EXTENSION
+     *
+     * @param directory The directory to look in
+     * @return The number of tables loaded
+     */
+    public int loadDirectory(String directory) throws IOException {
+        int loaded = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(directory), "*" + TrainedTable.EXTENSION)) {
+            for (Path file : files) {
+                add(TrainedTable.load(file.toString()));
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Decodes a message written by TrainedTable.encode with one of the tables
+     * in the registry
+     *
+     * @param encoded The coded message
+     * @return The original message
+     */
+    public byte[] decode(byte[] encoded) throws IOException {
+        BitReader in = new BitReader(ByteBuffer.wrap(encoded));
+        if (FileFormat.readHeader(in) != FileFormat.TRAINED)
+            throw new IOException("Not coded with a trained table");
+        TrainedTable table = get((int) in.readVarLong());
+        long len = in.readVarLong();
+        // Every byte takes at least one bit, which bounds a sane length
+        if (len > 8L * encoded.length)
+            throw new IOException("Malformed message length " + len);
+        return table.decodeCodes(in, (int) len);
+    }
+
+    /**
+     * Returns the registry used by HuffmanCoding.decodeFile, holding the
+     * tables in the directory named by the system property huffman.tables
+     */
+    public static TableRegistry getDefault() {
+        TableRegistry registry = defaultRegistry;
+        if (registry == null)
+            synchronized (TableRegistry.class) {
+                if (defaultRegistry == null) {
+                    registry = new TableRegistry();
+                    String directory = System.getProperty("huffman.tables");
+                    if (directory != null)
+                        try {
+                            registry.loadDirectory(directory);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    defaultRegistry = registry;
+                }
+                registry = defaultRegistry;
+            }
+        return registry;
+    }
+}
@@ -0,0 +1,185 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * This class is a code table over bytes trained once from sample data and
+ * then used for many small messages, so coding a message needs no histogram,
+ * tree or code table of its own. Every byte gets a code, even those missing
+ * from the samples, and no code is longer than the decode lookup width.
+ *
+ * A table is known by an id computed from its code lengths, so the same
+ * table always has the same id. Tables are saved with save() and coded data
+ * only names the id, which a TableRegistry turns back into the table.
+ *
+ * A coded message is the TRAINED header, the table id and the message length
+ * as variable length numbers, then the codes padded to a whole byte.
+ */
+public class TrainedTable {
+    /** Extension of saved table files */
+    public static final String EXTENSION = ".htable";
+    static final int ALPHABET = 256;
+
+    private final int id;
+    private final CodeTable codes;
+    private volatile DecodeTable decoder;
+
+    /**
+     * @param codes Canonical codes covering every byte
+     */
+    TrainedTable(CodeTable codes) {
+        if (codes.size() != ALPHABET)
+            throw new IllegalArgumentException("A trained table must cover " + ALPHABET + " symbols");
+        for (int l : codes.getLengths())
+            if (l == 0)
+                throw new IllegalArgumentException("A trained table must give every byte a code");
+        this.codes = codes;
+        CRC32 crc = new CRC32();
+        for (int l : codes.getLengths())
+            crc.update(l);
+        id = (int) crc.getValue();
+    }
+
+    /**
+     * Trains a table on the bytes of the given sample files
+     *
+     * @param sampleFiles Files typical of the messages the table will code
+     */
+    public static TrainedTable train(String... sampleFiles) throws IOException {
+        long[] counts = new long[ALPHABET];
+        byte[] buf = new byte[SymbolReader.BUFFER_SIZE];
+        for (String file : sampleFiles)
+            try (SymbolReader in = new SymbolReader(file, false)) {
+                for (int n = in.read(buf, 0, buf.length); n > 0; n = in.read(buf, 0, buf.length))
+                    SymbolKernels.get().count(buf, 0, n, counts);
+            }
+        return fromCounts(counts);
+    }
+
+    /**
+     * Trains a table on the given byte counts. Every count is raised by one
+     * first, so bytes the samples never held can still be coded.
+     *
+     * @param counts Occurrences of each byte in the samples
+     */
+    public static TrainedTable fromCounts(long[] counts) {
+        long[] smoothed = new long[ALPHABET];
+        for (int i = 0; i < ALPHABET; i++)
+            smoothed[i] = (i < counts.length ? counts[i] : 0) + 1;
+        return new TrainedTable(CodeTable.fromCounts(smoothed, DecodeTable.DEFAULT_LOOKUP_BITS));
+    }
+
+    /**
+     * Saves the table to a file, which load() reads back
+     *
+     * @param fileName The file to write, which doesn't need to exist yet
+     */
+    public void save(String fileName) throws IOException {
+        try (BitWriter out = new BitWriter(fileName)) {
+            FileFormat.writeHeader(out, FileFormat.TABLE);
+            codes.write(out);
+        }
+    }
+
+    /**
+     * Reads a table written by save()
+     *
+     * @param fileName The saved table
+     */
+    public static TrainedTable load(String fileName) throws IOException {
+        try (BitReader in = new BitReader(fileName)) {
+            if (FileFormat.readHeader(in) != FileFormat.TABLE)
+                throw new IOException(fileName + " is not a saved code table");
+            return new TrainedTable(CodeTable.read(in, ALPHABET));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(fileName + " does not hold a complete code table", e);
+        }
+    }
+
+    /** Codes a whole message */
+    public byte[] encode(byte[] message) {
+        return encode(message, 0, message.length);
+    }
+
+    /**
+     * Codes len bytes of message starting at off. The exact size of the
+     * result is known up front, so the bits are packed straight into it.
+     */
+    public byte[] encode(byte[] message, int off, int len) {
+        long[] code = codes.getCodes();
+        int[] length = codes.getLengths();
+        long bits = 0;
+        for (int i = off; i < off + len; i++)
+            bits += length[message[i] & 0xFF];
+        int head = 4 + varLongSize(id & 0xFFFFFFFFL) + varLongSize(len);
+        if (head + (bits + 7) / 8 > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Message is too large to code in memory");
+        ByteBuffer out = ByteBuffer.allocate(head + (int) ((bits + 7) / 8));
+        out.put((byte) 0).put((byte) 'H').put((byte) 'F').put((byte) FileFormat.TRAINED);
+        putVarLong(out, id & 0xFFFFFFFFL);
+        putVarLong(out, len);
+
+        long acc = 0;
+        int fill = 0;
+        for (int i = off; i < off + len; i++) {
+            int s = message[i] & 0xFF;
+            // Fewer than 8 + DEFAULT_LOOKUP_BITS bits are ever pending in acc
+            acc = acc << length[s] | code[s];
+            fill += length[s];
+            while (fill >= 8) {
+                fill -= 8;
+                out.put((byte) (acc >>> fill));
+            }
+        }
+        if (fill > 0)
+            out.put((byte) (acc << (8 - fill)));
+        return out.array();
+    }
+
+    /**
+     * Decodes the codes of a message of len bytes from in
+     */
+    byte[] decodeCodes(BitReader in, int len) throws IOException {
+        DecodeTable table = decoder();
+        byte[] message = new byte[len];
+        for (int i = 0; i < len; i++)
+            message[i] = (byte) table.decode(in);
+        return message;
+    }
+
+    /** Returns the id naming the table in coded data */
+    public int getId() {
+        return id;
+    }
+
+    public CodeTable getCodeTable() {
+        return codes;
+    }
+
+    /** Returns the decoding table, which is built on first use and kept */
+    public DecodeTable decoder() {
+        DecodeTable d = decoder;
+        if (d == null)
+            decoder = d = new DecodeTable(codes);
+        return d;
+    }
+
+    private static int varLongSize(long v) {
+        int n = 1;
+        while ((v & ~0x7FL) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    private static void putVarLong(ByteBuffer out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+}
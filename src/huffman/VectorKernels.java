@@ -0,0 +1,92 @@
+package huffman;
+
+import java.io.IOException;
+import jdk.incubator.vector.*;
+
+/**
+ * This class is SymbolKernels written with the incubating Vector API, and is
+ * only loaded by SymbolKernels.get() when the jdk.incubator.vector module is
+ * present. It gives exactly the same counts and bits as the scalar kernels.
+ *
+ * Counting spreads consecutive bytes over four sub-histograms, so that a run
+ * of equal bytes increments four counters in turn instead of waiting on one
+ * counter's last store, and adds the sub-histograms together lane by lane at
+ * the end.
+ *
+ * Packing converts a vector of bytes to indices, gathers code and length of
+ * each with one lookup, and joins every code with the one after it in the
+ * vector lanes, so the BitWriter takes four codes per call instead of one.
+ * Codes of up to 16 bits are packed this way, four of them fitting in a long;
+ * longer codes use the scalar loop.
+ */
+final class VectorKernels extends SymbolKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(INTS.length() * Byte.SIZE));
+    private static final int LANES = INTS.length();
+    private static final int SUBHISTOGRAMS = 4;
+    private static final int MAX_PACKED_LENGTH = 16;
+    // Bits of a gathered entry holding the code length, the code is above them
+    private static final int LENGTH_BITS = 5;
+    // Gives every lane the value of the lane after it
+    private static final VectorShuffle<Integer> NEXT = VectorShuffle.iota(INTS, 1, 1, true);
+
+    public String name() {
+        return "vector-" + INTS.vectorBitSize();
+    }
+
+    public void count(byte[] buf, int off, int len, long[] counts) {
+        if (len < 4 * 256) {
+            super.count(buf, off, len, counts);
+            return;
+        }
+        int[] sub = new int[SUBHISTOGRAMS * 256];
+        int i = off, end = off + (len & ~3);
+        for (; i < end; i += 4) {
+            sub[buf[i] & 0xFF]++;
+            sub[256 + (buf[i + 1] & 0xFF)]++;
+            sub[512 + (buf[i + 2] & 0xFF)]++;
+            sub[768 + (buf[i + 3] & 0xFF)]++;
+        }
+        for (; i < off + len; i++)
+            sub[buf[i] & 0xFF]++;
+        for (int s = 0; s < 256; s += LANES)
+            IntVector.fromArray(INTS, sub, s)
+                    .add(IntVector.fromArray(INTS, sub, 256 + s))
+                    .add(IntVector.fromArray(INTS, sub, 512 + s))
+                    .add(IntVector.fromArray(INTS, sub, 768 + s))
+                    .intoArray(sub, s);
+        for (int s = 0; s < 256; s++)
+            counts[s] += sub[s];
+    }
+
+    public void pack(byte[] buf, int off, int len, long[] codes, int[] lengths, BitWriter out) throws IOException {
+        int max = 0;
+        for (int s = 0; s < 256; s++)
+            max = Math.max(max, lengths[s]);
+        if (len < 4 * LANES || max > MAX_PACKED_LENGTH || LANES < 4) {
+            super.pack(buf, off, len, codes, lengths, out);
+            return;
+        }
+        int[] entries = new int[256];
+        for (int s = 0; s < 256; s++)
+            entries[s] = (int) codes[s] << LENGTH_BITS | lengths[s];
+        int[] index = new int[LANES], pairCodes = new int[LANES], pairLengths = new int[LANES];
+        int i = off, end = off + len - len % LANES;
+        for (; i < end; i += LANES) {
+            ((IntVector) ByteVector.fromArray(BYTES, buf, i).convertShape(VectorOperators.B2I, INTS, 0))
+                    .and(0xFF).intoArray(index, 0);
+            IntVector entry = IntVector.fromArray(INTS, entries, 0, index, 0);
+            IntVector code = entry.lanewise(VectorOperators.LSHR, LENGTH_BITS);
+            IntVector length = entry.and((1 << LENGTH_BITS) - 1);
+            IntVector nextLength = length.rearrange(NEXT);
+            // Even lanes now hold their code followed by the next lane's
+            code.lanewise(VectorOperators.LSHL, nextLength).or(code.rearrange(NEXT)).intoArray(pairCodes, 0);
+            length.add(nextLength).intoArray(pairLengths, 0);
+            for (int k = 0; k < LANES; k += 4)
+                out.writeBits((pairCodes[k] & 0xFFFFFFFFL) << pairLengths[k + 2] | (pairCodes[k + 2] & 0xFFFFFFFFL),
+                        pairLengths[k] + pairLengths[k + 2]);
+        }
+        super.pack(buf, i, off + len - i, codes, lengths, out);
+    }
+}
@@ -0,0 +1,144 @@
+package huffman;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This class is the output counterpart of ReadAheadChannel. Bytes written to
+ * it are gathered in direct buffers which a thread of its own writes to the
+ * target channel, so the producer goes on coding while earlier bytes are on
+ * their way to the disk. Written buffers come back through a bounded queue to
+ * be filled again, so the producer waits only when every buffer is still
+ * being written. Since the buffers are direct, the target channel writes them
+ * as they are, without copying them to a temporary buffer first.
+ *
+ * An error in the writer thread is thrown by the next write or by close().
+ */
+public class WriteBehindChannel implements WritableByteChannel {
+    // Handed over after the last buffer
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final WritableByteChannel target;
+    private final BlockingQueue<ByteBuffer> full, free;
+    private final Thread writer;
+    private volatile IOException failure;
+    private ByteBuffer current;
+    private boolean open = true;
+
+    /**
+     * Starts a writer thread on the given channel
+     *
+     * @param target     The channel to write, closed when this one is
+     * @param buffers    Number of buffers to cycle, at least 2
+     * @param bufferSize Size of each buffer
+     */
+    public WriteBehindChannel(WritableByteChannel target, int buffers, int bufferSize) {
+        if (buffers < 2 || bufferSize <= 0)
+            throw new IllegalArgumentException("Write behind needs at least 2 buffers of a positive size");
+        this.target = target;
+        full = new ArrayBlockingQueue<ByteBuffer>(buffers + 1);
+        free = new ArrayBlockingQueue<ByteBuffer>(buffers);
+        for (int i = 0; i < buffers; i++)
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        writer = new Thread(this::drain, "huffman-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Creates the given file, which doesn't need to exist yet, and starts a
+     * writer thread on it with the default buffers of ReadAheadChannel
+     *
+     * @param fileName The file to write to
+     */
+    public static WriteBehindChannel open(String fileName) throws IOException {
+        return new WriteBehindChannel(FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+                ReadAheadChannel.DEFAULT_BUFFERS, ReadAheadChannel.DEFAULT_BUFFER_SIZE);
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        if (!open)
+            throw new ClosedChannelException();
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            if (current == null)
+                current = take();
+            int n = Math.min(src.remaining(), current.remaining());
+            current.put(src.slice().limit(n));
+            src.position(src.position() + n);
+            if (!current.hasRemaining()) {
+                current.flip();
+                full.add(current);
+                current = null;
+            }
+        }
+        return written;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Hands over the last bytes, waits for the writer thread to write
+     * everything and closes the target channel
+     */
+    public void close() throws IOException {
+        if (!open)
+            return;
+        open = false;
+        try {
+            if (current != null) {
+                current.flip();
+                full.add(current);
+                current = null;
+            }
+            full.add(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for output to be written");
+        } finally {
+            target.close();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private ByteBuffer take() throws IOException {
+        if (failure != null)
+            throw failure;
+        try {
+            ByteBuffer buf = free.take();
+            if (buf == END)
+                throw failure;
+            buf.clear();
+            return buf;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a free buffer");
+        }
+    }
+
+    private void drain() {
+        try {
+            for (ByteBuffer buf = full.take(); buf != END; buf = full.take()) {
+                while (buf.hasRemaining())
+                    target.write(buf);
+                free.put(buf);
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException e) {
+            failure = e;
+            // Wake a producer waiting for a buffer, so it sees the failure
+            free.offer(END);
+        }
+    }
+}
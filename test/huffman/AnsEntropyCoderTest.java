@@ -0,0 +1,111 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round trips blocks through AnsEntropyCoder directly, so tANS is used even
+ * where EntropyFile would pick Huffman or store the block
+ */
+class AnsEntropyCoderTest {
+    private final AnsEntropyCoder coder = new AnsEntropyCoder();
+
+    @Test
+    void oneByte() throws IOException {
+        for (int b = 0; b < 256; b += 51)
+            roundTrip(new byte[] { (byte) b });
+    }
+
+    @Test
+    void singleSymbol() throws IOException {
+        for (int len : new int[] { 2, 3, 1000, 1 << 16 }) {
+            byte[] raw = new byte[len];
+            Arrays.fill(raw, (byte) 'a');
+            roundTrip(raw);
+        }
+    }
+
+    @Test
+    void twoSymbols() throws IOException {
+        roundTrip(new byte[] { 0, (byte) 255 });
+        byte[] raw = new byte[5000];
+        raw[4999] = 1;
+        roundTrip(raw);
+    }
+
+    @Test
+    void allBytes() throws IOException {
+        byte[] raw = new byte[256];
+        for (int i = 0; i < raw.length; i++)
+            raw[i] = (byte) i;
+        roundTrip(raw);
+        byte[] repeated = new byte[256 * 37];
+        for (int i = 0; i < repeated.length; i++)
+            repeated[i] = (byte) (i * 7);
+        roundTrip(repeated);
+    }
+
+    @Test
+    void skewed() throws IOException {
+        Random random = new Random(1);
+        byte[] raw = new byte[100_000];
+        for (int i = 0; i < raw.length; i++)
+            raw[i] = (byte) (random.nextInt(10) == 0 ? random.nextInt(256) : 'e');
+        byte[] encoded = roundTrip(raw);
+        assertTrue(encoded.length < raw.length / 2, "tANS should shrink a skewed block");
+    }
+
+    @Test
+    void randomBlocks() throws IOException {
+        Random random = new Random(2);
+        for (int n = 0; n < 300; n++) {
+            byte[] raw = new byte[1 + random.nextInt(n < 200 ? 64 : 20_000)];
+            // Alphabets from one byte to all of them, with skews from flat to steep
+            int alphabet = 1 + random.nextInt(256);
+            double skew = random.nextDouble() * 3;
+            for (int i = 0; i < raw.length; i++)
+                raw[i] = (byte) (alphabet * Math.pow(random.nextDouble(), 1 + skew));
+            roundTrip(raw);
+        }
+    }
+
+    @Test
+    void truncatedBlockFails() throws IOException {
+        byte[] raw = new byte[1000];
+        new Random(3).nextBytes(raw);
+        byte[] encoded = encode(raw);
+        byte[] cut = Arrays.copyOf(encoded, encoded.length / 2);
+        assertThrows(IOException.class, () -> coder.decode(new BitReader(ByteBuffer.wrap(cut)), new byte[1000], 1000));
+    }
+
+    private byte[] roundTrip(byte[] raw) throws IOException {
+        byte[] encoded = encode(raw);
+        // A marker after the block checks the decoder stops on its last byte
+        BitReader in = new BitReader(ByteBuffer.wrap(encoded));
+        byte[] decoded = new byte[raw.length];
+        coder.decode(in, decoded, raw.length);
+        assertArrayEquals(raw, decoded);
+        assertEquals(0xA5, in.readByte());
+        assertEquals(8L * encoded.length, in.bitsRead());
+        return encoded;
+    }
+
+    private byte[] encode(byte[] raw) throws IOException {
+        long[] counts = new long[256];
+        for (byte b : raw)
+            counts[b & 0xFF]++;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitWriter out = new BitWriter(Channels.newChannel(bytes))) {
+            coder.encode(raw, raw.length, counts, out);
+            out.writeByte(0xA5);
+        }
+        return bytes.toByteArray();
+    }
+}